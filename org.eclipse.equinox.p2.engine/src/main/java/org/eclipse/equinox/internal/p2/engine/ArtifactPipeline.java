@@ -0,0 +1,319 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+import org.eclipse.osgi.signedcontent.SignedContent;
+import org.eclipse.osgi.signedcontent.SignedContentFactory;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Overlaps the download of artifacts in the collect phase with the check trust phase.
+ * <p>
+ * The collect phase registers the artifact requests of each installable unit and starts
+ * the download in the background instead of waiting for it. The check trust phase waits
+ * for the artifacts of each unit only, and the signatures of the artifacts are verified
+ * in the background as soon as the unit was checked, while the download continues. The
+ * check trust phase completes once every artifact is downloaded and trusted, so the
+ * phases after it still start only when all of them are.
+ */
+public class ArtifactPipeline implements DownloadManager.IRequestListener {
+	// the number of requests fetched from a repository before their units are released
+	private static final int DOWNLOAD_CHUNK_SIZE = 16;
+	// the work reported for the download by the phase waiting for it to end
+	private static final int DOWNLOAD_WORK = 1000;
+
+	private final Map<IInstallableUnit, List<IArtifactRequest>> unitRequests = new HashMap<IInstallableUnit, List<IArtifactRequest>>();
+	private final Set<IArtifactRequest> completed = new HashSet<IArtifactRequest>();
+	private final DownloadProgress downloadMonitor = new DownloadProgress();
+	// the last message of the download reported to a waiting thread
+	private String reportedMessage;
+	private Thread downloader;
+	private boolean downloading;
+	private IStatus downloadStatus = Status.OK_STATUS;
+
+	private final Map<File, Future<SignedContent>> verifications = new HashMap<File, Future<SignedContent>>();
+	private ExecutorService verifier;
+	private ServiceReference<SignedContentFactory> contentFactoryRef;
+	private SignedContentFactory contentFactory;
+
+	/**
+	 * Registers the artifact requests of the given unit.
+	 */
+	public synchronized void add(IInstallableUnit iu, IArtifactRequest[] requests) {
+		List<IArtifactRequest> list = unitRequests.get(iu);
+		if (list == null) {
+			list = new ArrayList<IArtifactRequest>(requests.length);
+			unitRequests.put(iu, list);
+		}
+		list.addAll(Arrays.asList(requests));
+	}
+
+	/**
+	 * Starts downloading the given requests in the background.
+	 */
+	public synchronized void startDownloads(final DownloadManager downloadManager, final ProvisioningContext context, final IProvisioningEventBus bus, final IArtifactRequest[] requests) {
+		downloadManager.setRequestListener(this, DOWNLOAD_CHUNK_SIZE);
+		downloading = true;
+		downloader = new Thread("Provisioning Download") { //$NON-NLS-1$
+			public void run() {
+				IStatus result = null;
+				try {
+					result = downloadManager.start(downloadMonitor);
+					if (result.isOK() && bus != null)
+						bus.publishEvent(new CollectEvent(CollectEvent.TYPE_OVERALL_END, null, context, requests));
+				} catch (RuntimeException e) {
+					result = new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e);
+				} finally {
+					synchronized (ArtifactPipeline.this) {
+						downloadStatus = result != null ? result : Status.CANCEL_STATUS;
+						downloading = false;
+						ArtifactPipeline.this.notifyAll();
+					}
+				}
+			}
+		};
+		downloader.setDaemon(true);
+		downloader.start();
+	}
+
+	public synchronized void completed(IArtifactRequest[] requests) {
+		completed.addAll(Arrays.asList(requests));
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the artifacts of the given unit are downloaded. Returns the status of the
+	 * download if it ended without them. The messages of the download are reported to the
+	 * given monitor while waiting, but not its work, which belongs to the operands.
+	 */
+	public synchronized IStatus awaitDownloads(IInstallableUnit iu, IProgressMonitor monitor) {
+		List<IArtifactRequest> requests = unitRequests.get(iu);
+		if (requests == null)
+			return Status.OK_STATUS;
+		reportedMessage = null;
+		while (!completed.containsAll(requests)) {
+			if (!downloading)
+				return downloadStatus.isOK() ? Status.OK_STATUS : downloadStatus;
+			IStatus status = await(monitor);
+			if (status != null)
+				return status;
+		}
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Waits until the download ended and returns its status. The progress of the download
+	 * is reported to the given monitor while waiting.
+	 */
+	public synchronized IStatus awaitDownloads(IProgressMonitor monitor) {
+		SubMonitor progress = SubMonitor.convert(monitor, DOWNLOAD_WORK);
+		int reportedWork = 0;
+		reportedMessage = null;
+		while (downloading) {
+			int work = (int) (downloadMonitor.getFractionDone() * DOWNLOAD_WORK);
+			if (work > reportedWork) {
+				progress.worked(work - reportedWork);
+				reportedWork = work;
+			}
+			IStatus status = await(progress);
+			if (status != null)
+				return status;
+		}
+		progress.done();
+		return downloadStatus;
+	}
+
+	private IStatus await(IProgressMonitor monitor) {
+		if (monitor != null) {
+			// the monitor of the caller is only used on its own thread
+			String message = downloadMonitor.getMessage();
+			if (message != null && !message.equals(reportedMessage)) {
+				reportedMessage = message;
+				monitor.subTask(message);
+			}
+		}
+		if (monitor != null && monitor.isCanceled()) {
+			downloadMonitor.setCanceled(true);
+			return Status.CANCEL_STATUS;
+		}
+		try {
+			wait(100);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			downloadMonitor.setCanceled(true);
+			return new Status(IStatus.ERROR, EngineActivator.ID, Messages.download_artifact, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Starts verifying the signatures of the given downloaded artifact in the background.
+	 */
+	public synchronized void verify(final File artifact) {
+		if (verifications.containsKey(artifact))
+			return;
+		if (verifier == null) {
+			BundleContext context = EngineActivator.getContext();
+			contentFactoryRef = context.getServiceReference(SignedContentFactory.class);
+			if (contentFactoryRef == null)
+				return;
+			contentFactory = context.getService(contentFactoryRef);
+			verifier = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Provisioning Signature Verification"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		if (contentFactory == null)
+			return;
+		final SignedContentFactory factory = contentFactory;
+		verifications.put(artifact, verifier.submit(new Callable<SignedContent>() {
+			public SignedContent call() throws Exception {
+				SignedContent content = factory.getSignedContent(artifact);
+				if (content.isSigned())
+					content.getSignerInfos();
+				return content;
+			}
+		}));
+	}
+
+	/**
+	 * Returns the signed content of the given artifact, as verified in the background if it was.
+	 */
+	public SignedContent getSignedContent(File artifact, SignedContentFactory factory) throws IOException, GeneralSecurityException {
+		Future<SignedContent> verification;
+		synchronized (this) {
+			verification = verifications.get(artifact);
+		}
+		if (verification == null)
+			return factory.getSignedContent(artifact);
+		try {
+			return verification.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return factory.getSignedContent(artifact);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof GeneralSecurityException)
+				throw (GeneralSecurityException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(String.valueOf(cause));
+		}
+	}
+
+	/**
+	 * Cancels the download if it has not ended, waits for it and releases the resources of this
+	 * pipeline. Called once the phases are performed, before they are rolled back if they failed.
+	 */
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			if (downloading)
+				downloadMonitor.setCanceled(true);
+			thread = downloader;
+		}
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			if (verifier != null) {
+				verifier.shutdownNow();
+				verifier = null;
+			}
+			if (contentFactoryRef != null) {
+				EngineActivator.getContext().ungetService(contentFactoryRef);
+				contentFactoryRef = null;
+				contentFactory = null;
+			}
+			verifications.clear();
+		}
+	}
+
+	/*
+	 * Records the progress of the download thread, so that the threads waiting for the
+	 * download can report it to their own monitors.
+	 */
+	private static final class DownloadProgress extends NullProgressMonitor {
+		private double totalWork;
+		private double worked;
+		private String message;
+		private volatile boolean canceled;
+
+		public synchronized void beginTask(String name, int work) {
+			totalWork = work > 0 ? work : 0;
+			worked = 0;
+			setMessage(name);
+		}
+
+		public void worked(int work) {
+			internalWorked(work);
+		}
+
+		public synchronized void internalWorked(double work) {
+			worked += work;
+		}
+
+		public synchronized void setTaskName(String name) {
+			setMessage(name);
+		}
+
+		public synchronized void subTask(String name) {
+			setMessage(name);
+		}
+
+		public synchronized void done() {
+			worked = totalWork;
+		}
+
+		public boolean isCanceled() {
+			return canceled;
+		}
+
+		public void setCanceled(boolean canceled) {
+			this.canceled = canceled;
+		}
+
+		synchronized double getFractionDone() {
+			return totalWork > 0 ? Math.min(worked / totalWork, 1) : 0;
+		}
+
+		synchronized String getMessage() {
+			return message;
+		}
+
+		private void setMessage(String name) {
+			if (name != null && name.length() > 0)
+				message = name;
+		}
+	}
+}
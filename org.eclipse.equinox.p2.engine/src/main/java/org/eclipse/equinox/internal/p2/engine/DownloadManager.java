@@ -23,9 +23,18 @@ import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
 
 public class DownloadManager {
+	/**
+	 * Notified of the artifact requests that completed successfully, while the download continues.
+	 */
+	public interface IRequestListener {
+		public void completed(IArtifactRequest[] requests);
+	}
+
 	private ProvisioningContext provContext = null;
 	ArrayList<IArtifactRequest> requestsToProcess = new ArrayList<IArtifactRequest>();
 	private IProvisioningAgent agent = null;
+	private IRequestListener listener = null;
+	private int chunkSize = Integer.MAX_VALUE;
 
 	/**
 	 * This Comparator sorts the repositories such that local repositories are first.
@@ -60,6 +69,15 @@ public class DownloadManager {
 		requestsToProcess.add(toAdd);
 	}
 
+	/**
+	 * Sets the listener notified of completed requests. The requests for a repository are
+	 * then fetched in chunks of the given size, and the listener is notified after each chunk.
+	 */
+	public void setRequestListener(IRequestListener listener, int chunkSize) {
+		this.listener = listener;
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
 	public void add(IArtifactRequest[] toAdd) {
 		Assert.isNotNull(toAdd);
 		for (int i = 0; i < toAdd.length; i++) {
@@ -109,7 +127,17 @@ public class DownloadManager {
 		for (int i = 0; i < repositories.length && !requestsToProcess.isEmpty() && !monitor.isCanceled(); i++) {
 			IArtifactRequest[] requests = getRequestsForRepository(repositories[i]);
 			publishDownloadEvent(new CollectEvent(CollectEvent.TYPE_REPOSITORY_START, repositories[i], provContext, requests));
-			IStatus dlStatus = repositories[i].getArtifacts(requests, monitor.newChild(requests.length));
+			IStatus dlStatus = Status.OK_STATUS;
+			for (int start = 0; start < requests.length && dlStatus.getSeverity() != IStatus.CANCEL; start += chunkSize) {
+				IArtifactRequest[] chunk = requests;
+				if (requests.length > chunkSize) {
+					chunk = new IArtifactRequest[Math.min(chunkSize, requests.length - start)];
+					System.arraycopy(requests, start, chunk, 0, chunk.length);
+				}
+				dlStatus = repositories[i].getArtifacts(chunk, monitor.newChild(chunk.length));
+				if (listener != null)
+					notifyCompleted(chunk);
+			}
 			publishDownloadEvent(new CollectEvent(CollectEvent.TYPE_REPOSITORY_END, repositories[i], provContext, requests));
 			if (dlStatus.getSeverity() == IStatus.CANCEL)
 				return;
@@ -118,6 +146,16 @@ public class DownloadManager {
 		}
 	}
 
+	private void notifyCompleted(IArtifactRequest[] requests) {
+		ArrayList<IArtifactRequest> completed = new ArrayList<IArtifactRequest>(requests.length);
+		for (int i = 0; i < requests.length; i++) {
+			if (requests[i].getResult() != null && requests[i].getResult().isOK())
+				completed.add(requests[i]);
+		}
+		if (!completed.isEmpty())
+			listener.completed(completed.toArray(new IArtifactRequest[completed.size()]));
+	}
+
 	private void publishDownloadEvent(CollectEvent event) {
 		IProvisioningEventBus bus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
 		if (bus != null)
@@ -10,11 +10,14 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
+import java.util.concurrent.*;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 
 public class EngineActivator implements BundleActivator {
 	private static BundleContext context;
+	// the threads profiles evaluate queries on in parallel, created on first use
+	private static ExecutorService queryExecutor;
 	public static final String ID = "org.eclipse.equinox.p2.engine"; //$NON-NLS-1$
 
 	/**
@@ -52,16 +55,159 @@ public class EngineActivator implements BundleActivator {
 	 */
 	public static final String UNSIGNED_ALLOW = "allow"; //$NON-NLS-1$
 
+	/**
+	 * System property specifying whether the profile registry should write an indexed
+	 * binary snapshot next to each profile file. Binary snapshots are read in preference
+	 * to the XML when present and up to date.
+	 */
+	public static final String PROP_PROFILE_SNAPSHOT = "eclipse.p2.profileSnapshot"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the number of profile revisions between full profile
+	 * files. The revisions in between are appended to the profile journal as deltas.
+	 * Journaling is disabled if this property is undefined or less than 2.
+	 */
+	public static final String PROP_PROFILE_JOURNAL_CHECKPOINT = "eclipse.p2.profileJournalCheckpoint"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the number of profiles the profile registry parses in
+	 * parallel when it is restored. If this property is undefined, the number of
+	 * available processors is used.
+	 */
+	public static final String PROP_PROFILE_RESTORE_PARALLELISM = "eclipse.p2.profileRestoreParallelism"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying whether the profile registry should load profiles on
+	 * first access instead of restoring all profiles at once.
+	 */
+	public static final String PROP_PROFILE_LAZY_LOAD = "eclipse.p2.profileLazyLoad"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the maximum number of profiles the profile registry
+	 * keeps loaded. If this property is undefined, the number is not bounded.
+	 */
+	public static final String PROP_PROFILE_CACHE_SIZE = "eclipse.p2.profileCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the maximum total number of installable units in the
+	 * profiles the profile registry keeps loaded. If this property is undefined, the
+	 * number is not bounded.
+	 */
+	public static final String PROP_PROFILE_CACHE_WEIGHT = "eclipse.p2.profileCacheWeight"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the maximum number of profiles whose state properties
+	 * the profile registry keeps cached. If this property is undefined, the state
+	 * properties of 8 profiles are cached.
+	 */
+	public static final String PROP_PROFILE_STATE_CACHE_SIZE = "eclipse.p2.profileStateCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the number of most recent revisions of each profile
+	 * that are kept. If neither this property nor the retention age is defined, no
+	 * revision is ever removed.
+	 */
+	public static final String PROP_PROFILE_RETENTION_COUNT = "eclipse.p2.profileRetentionCount"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the number of days revisions of each profile are kept.
+	 * Revisions among the most recent ones are kept regardless of their age.
+	 */
+	public static final String PROP_PROFILE_RETENTION_AGE = "eclipse.p2.profileRetentionAge"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying a profile state property key. Revisions that have this
+	 * state property are never removed by the retention policy.
+	 */
+	public static final String PROP_PROFILE_RETENTION_TAG = "eclipse.p2.profileRetentionTag"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the maximum number of historical profile revisions the
+	 * profile registry keeps parsed. If this property is undefined, 8 revisions are kept.
+	 */
+	public static final String PROP_PROFILE_HISTORY_CACHE_SIZE = "eclipse.p2.profileHistoryCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the maximum total number of installable units in the
+	 * historical profile revisions the profile registry keeps parsed. If this property is
+	 * undefined, the revisions hold at most 50000 installable units.
+	 */
+	public static final String PROP_PROFILE_HISTORY_CACHE_WEIGHT = "eclipse.p2.profileHistoryCacheWeight"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying whether the installable units of profiles read from binary
+	 * snapshots are only decoded when their metadata is first accessed. Their ids, versions
+	 * and profile properties are always available.
+	 */
+	public static final String PROP_PROFILE_LAZY_UNITS = "eclipse.p2.profileLazyUnits"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the number of installable units above which profiles
+	 * evaluate match queries that no index applies to on several threads. If this property
+	 * is undefined or 0, queries are always evaluated on the calling thread.
+	 */
+	public static final String PROP_PROFILE_PARALLEL_QUERY_THRESHOLD = "eclipse.p2.profileParallelQueryThreshold"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the number of threads phases that support it use to execute
+	 * the actions of operands whose touchpoints are concurrency-safe. A value of 1 executes
+	 * all operands on the calling thread. If this property is undefined, the number of
+	 * available processors is used.
+	 */
+	public static final String PROP_PHASE_PARALLELISM = "eclipse.p2.phaseParallelism"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying whether the collect phase downloads the artifacts in the
+	 * background while the check trust phase checks the units whose artifacts are already
+	 * downloaded. The phases after the check trust phase still start once all artifacts are
+	 * downloaded and trusted. If this property is undefined, the phases are not pipelined.
+	 */
+	public static final String PROP_PIPELINED_PHASES = "eclipse.p2.pipelinedPhases"; //$NON-NLS-1$
+
 	public static BundleContext getContext() {
 		return context;
 	}
 
+	/**
+	 * Returns the value of the given framework property, or <code>null</code> if
+	 * the property is not set or the bundle is not started.
+	 */
+	public static String getProperty(String key) {
+		BundleContext current = context;
+		return current == null ? null : current.getProperty(key);
+	}
+
+	/**
+	 * Returns the pool of threads that profiles evaluate queries on in parallel, or
+	 * <code>null</code> if the bundle is not started.
+	 */
+	static synchronized ExecutorService getQueryExecutor() {
+		if (context == null)
+			return null;
+		if (queryExecutor == null) {
+			queryExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Profile Query"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return queryExecutor;
+	}
+
 	public void start(BundleContext aContext) throws Exception {
 		EngineActivator.context = aContext;
 	}
 
 	public void stop(BundleContext aContext) throws Exception {
-		EngineActivator.context = null;
+		synchronized (EngineActivator.class) {
+			EngineActivator.context = null;
+			if (queryExecutor != null) {
+				queryExecutor.shutdownNow();
+				queryExecutor = null;
+			}
+		}
 	}
 
 }
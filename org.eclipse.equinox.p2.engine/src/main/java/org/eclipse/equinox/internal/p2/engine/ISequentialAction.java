@@ -0,0 +1,21 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+/**
+ * Marks the actions of the engine itself that update the profile or publish events
+ * about it. Phases execute these actions on the calling thread, in the order of the
+ * operands, even when the touchpoint actions between them are executed concurrently.
+ * They must come before or after the touchpoint actions of an operand.
+ */
+public interface ISequentialAction {
+	// marker interface
+}
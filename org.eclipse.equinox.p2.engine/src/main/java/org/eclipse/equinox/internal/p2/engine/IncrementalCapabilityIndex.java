@@ -0,0 +1,91 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.IUMap;
+import org.eclipse.equinox.internal.p2.metadata.index.CapabilityIndex;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+
+/**
+ * A capability index over a changing set of installable units. It answers queries from
+ * a capability index of the units at the time it was built, corrected by the units added
+ * and removed since. The index is rebuilt once the changes outgrow a fraction of the units.
+ * <p>
+ * Index candidates only have to include every match, because the query is evaluated
+ * on each candidate. So added units are always candidates, and removed units are
+ * left out of the candidates of the underlying index.
+ */
+public class IncrementalCapabilityIndex implements IIndex<IInstallableUnit> {
+
+	private static final int MIN_REBUILD_THRESHOLD = 64;
+
+	private final IUMap units;
+	private CapabilityIndex index;
+	private final Set<IInstallableUnit> added = new HashSet<IInstallableUnit>();
+	private final Set<IInstallableUnit> removed = new HashSet<IInstallableUnit>();
+	private int rebuilds;
+
+	/**
+	 * @param units the units to index, which are changed by the owner of this index
+	 */
+	public IncrementalCapabilityIndex(IUMap units) {
+		this.units = units;
+	}
+
+	public synchronized void added(IInstallableUnit iu) {
+		if (index != null && !removed.remove(iu))
+			added.add(iu);
+	}
+
+	public synchronized void removed(IInstallableUnit iu) {
+		if (index != null && !added.remove(iu))
+			removed.add(iu);
+	}
+
+	public synchronized void cleared() {
+		index = null;
+		added.clear();
+		removed.clear();
+	}
+
+	public synchronized Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+		if (index == null || added.size() + removed.size() > Math.max(MIN_REBUILD_THRESHOLD, units.size() / 16)) {
+			index = new CapabilityIndex(units.iterator());
+			added.clear();
+			removed.clear();
+			rebuilds++;
+		}
+
+		Iterator<IInstallableUnit> candidates = index.getCandidates(ctx, variable, booleanExpr);
+		if (candidates == null || (added.isEmpty() && removed.isEmpty()))
+			return candidates;
+
+		List<IInstallableUnit> result = new ArrayList<IInstallableUnit>();
+		while (candidates.hasNext()) {
+			IInstallableUnit candidate = candidates.next();
+			if (!removed.contains(candidate))
+				result.add(candidate);
+		}
+		result.addAll(added);
+		return result.iterator();
+	}
+
+	/**
+	 * Returns the number of times the underlying index was built.
+	 */
+	public synchronized int getRebuildCount() {
+		return rebuilds;
+	}
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * An installable unit read from a binary profile snapshot whose metadata is decoded
+ * from its XML fragment on first access. Its id and version are known up front, so
+ * it can be added to a profile, indexed by id and compared without being decoded.
+ * The fragment is validated against its checksum when the snapshot is read, so the
+ * metadata of the unit is available even though it is decoded later.
+ */
+public class LazyInstallableUnit implements IInstallableUnit, IMemberProvider {
+
+	/**
+	 * Provides the units of the profile file a snapshot was derived from, for the units
+	 * of the snapshot whose fragment cannot be decoded.
+	 */
+	public interface IFallback {
+		/**
+		 * Returns the unit with the given id and version, or <code>null</code> if there is none.
+		 */
+		public IInstallableUnit getUnit(String id, Version version) throws IOException;
+	}
+
+	private final String id;
+	private final Version version;
+	// the fragment of this unit, dropped once decoded
+	private byte[] fragment;
+	private IFallback fallback;
+	private volatile IInstallableUnit unit;
+
+	public LazyInstallableUnit(String id, Version version, byte[] fragment, IFallback fallback) {
+		this.id = id;
+		this.version = version;
+		this.fragment = fragment;
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Returns whether the metadata of this unit was decoded.
+	 */
+	public boolean isDecoded() {
+		return unit != null;
+	}
+
+	/**
+	 * Returns the decoded installable unit, decoding it first if needed. A unit whose
+	 * fragment cannot be decoded is read from the profile file instead.
+	 */
+	public IInstallableUnit getUnit() {
+		IInstallableUnit result = unit;
+		if (result != null)
+			return result;
+		synchronized (this) {
+			if (unit == null) {
+				try {
+					unit = ProfileParser.parseUnitFragment(fragment, 0, fragment.length);
+				} catch (IOException e) {
+					unit = readFallback(e);
+				}
+				fragment = null;
+				fallback = null;
+			}
+			return unit;
+		}
+	}
+
+	/*
+	 * Reads this unit from the profile file. Validated fragments are always decoded, so
+	 * this only happens if decoding fails for another reason. If the profile file cannot
+	 * provide the unit either, a unit with the id and version of this unit only is used,
+	 * so that reading the metadata of a unit does not fail.
+	 */
+	private IInstallableUnit readFallback(IOException error) {
+		String message = NLS.bind(Messages.error_parsing_profile, this);
+		LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, message, error));
+		if (fallback != null) {
+			try {
+				IInstallableUnit result = fallback.getUnit(id, version);
+				if (result != null)
+					return result;
+			} catch (IOException e) {
+				LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, message, e));
+			}
+		}
+		LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, message));
+		MetadataFactory.InstallableUnitDescription description = new MetadataFactory.InstallableUnitDescription();
+		description.setId(id);
+		description.setVersion(version);
+		return MetadataFactory.createInstallableUnit(description);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Version getVersion() {
+		return version;
+	}
+
+	public Collection<IArtifactKey> getArtifacts() {
+		return getUnit().getArtifacts();
+	}
+
+	public IMatchExpression<IInstallableUnit> getFilter() {
+		return getUnit().getFilter();
+	}
+
+	public Collection<IInstallableUnitFragment> getFragments() {
+		return getUnit().getFragments();
+	}
+
+	public Map<String, String> getProperties() {
+		return getUnit().getProperties();
+	}
+
+	public String getProperty(String key) {
+		return getUnit().getProperty(key);
+	}
+
+	public String getProperty(String key, String locale) {
+		return getUnit().getProperty(key, locale);
+	}
+
+	public Collection<IProvidedCapability> getProvidedCapabilities() {
+		return getUnit().getProvidedCapabilities();
+	}
+
+	public Collection<IRequirement> getRequirements() {
+		return getUnit().getRequirements();
+	}
+
+	public Collection<IRequirement> getMetaRequirements() {
+		return getUnit().getMetaRequirements();
+	}
+
+	public Collection<ITouchpointData> getTouchpointData() {
+		return getUnit().getTouchpointData();
+	}
+
+	public ITouchpointType getTouchpointType() {
+		return getUnit().getTouchpointType();
+	}
+
+	public boolean isResolved() {
+		return false;
+	}
+
+	public boolean isSingleton() {
+		return getUnit().isSingleton();
+	}
+
+	public boolean satisfies(IRequirement candidate) {
+		return getUnit().satisfies(candidate);
+	}
+
+	public IInstallableUnit unresolved() {
+		// units are stored in profiles unresolved
+		return this;
+	}
+
+	public IUpdateDescriptor getUpdateDescriptor() {
+		return getUnit().getUpdateDescriptor();
+	}
+
+	public Collection<ILicense> getLicenses() {
+		return getUnit().getLicenses();
+	}
+
+	public ILicense[] getLicenses(String locale) {
+		return getUnit().getLicenses(locale);
+	}
+
+	public ICopyright getCopyright() {
+		return getUnit().getCopyright();
+	}
+
+	public ICopyright getCopyright(String locale) {
+		return getUnit().getCopyright(locale);
+	}
+
+	public Object getMember(String memberName) {
+		if (InstallableUnit.MEMBER_ID.equals(memberName))
+			return id;
+		if (InstallableUnit.MEMBER_VERSION.equals(memberName))
+			return version;
+		IInstallableUnit decoded = getUnit();
+		if (decoded instanceof IMemberProvider)
+			return ((IMemberProvider) decoded).getMember(memberName);
+		throw new IllegalArgumentException("No such member: " + memberName); //$NON-NLS-1$
+	}
+
+	public int compareTo(IInstallableUnit other) {
+		int cmp = id.compareTo(other.getId());
+		if (cmp == 0)
+			cmp = version.compareTo(other.getVersion());
+		return cmp;
+	}
+
+	// same identity as InstallableUnit, so that lazy and decoded units are interchangeable
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof IInstallableUnit))
+			return false;
+		IInstallableUnit other = (IInstallableUnit) obj;
+		return id.equals(other.getId()) && version.equals(other.getVersion());
+	}
+
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + id.hashCode();
+		result = prime * result + version.hashCode();
+		return result;
+	}
+
+	public String toString() {
+		return id + ' ' + version;
+	}
+}
@@ -105,7 +105,10 @@ public class Messages extends NLS {
 	public static String SimpleProfileRegistry_Profile_not_locked_due_to_exception;
 	public static String SimpleProfileRegistry_States_Error_Reading_File;
 	public static String SimpleProfileRegistry_States_Error_Writing_File;
+	public static String SimpleProfileRegistry_States_Compacting;
+	public static String SimpleProfileRegistry_Removing_Expired_Revisions;
 	public static String SimpleProfileRegistry_state_not_found;
+	public static String SimpleProfileRegistry_Journal_Missing_Revision;
 
 	public static String thread_not_owner;
 	public static String touchpoint_commit_error;
@@ -12,6 +12,7 @@
 package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
@@ -35,6 +36,10 @@ public abstract class Phase {
 	protected static final String PARM_TOUCHPOINT = "touchpoint"; //$NON-NLS-1$
 	protected static final String LAST_RESULT_INTERNAL_NAME = "_p2_internal_last_result_variable_"; //$NON-NLS-1$ //
 	protected static final String LAST_RESULT_PUBLIC_NAME = "lastResult"; //$NON-NLS-1$
+	// the number of operands per thread that are prepared before their actions are executed
+	private static final int OPERANDS_PER_THREAD = 8;
+	// how often the progress monitor is checked for cancellation while touchpoint actions run concurrently
+	private static final long CANCEL_POLL_INTERVAL = 100;
 
 	protected final String phaseId;
 	protected final int weight;
@@ -47,7 +52,10 @@ public abstract class Phase {
 	private Map<Touchpoint, Map<String, Object>> touchpointToTouchpointPhaseParameters = new HashMap<Touchpoint, Map<String, Object>>();
 	private Map<Touchpoint, Map<String, Object>> touchpointToTouchpointOperandParameters = new HashMap<Touchpoint, Map<String, Object>>();
 	ActionManager actionManager; // injected from phaseset
+	ArtifactPipeline artifactPipeline; // injected from phaseset when the download is pipelined
 	protected boolean isPaused = false;
+	// whether the operands executed concurrently are canceled, read from the progress monitor on the calling thread
+	private volatile boolean operandsCanceled;
 
 	protected Phase(String phaseId, int weight, boolean forced) {
 		if (phaseId == null || phaseId.length() == 0)
@@ -67,6 +75,14 @@ public abstract class Phase {
 		return actionManager;
 	}
 
+	/**
+	 * Returns the pipeline the artifacts are downloaded and verified through in the
+	 * background, or <code>null</code> if the phases wait for the download.
+	 */
+	final protected ArtifactPipeline getArtifactPipeline() {
+		return artifactPipeline;
+	}
+
 	public String toString() {
 		return getClass().getName() + " - " + this.weight; //$NON-NLS-1$
 	}
@@ -121,97 +137,476 @@ public abstract class Phase {
 	private void mainPerform(MultiStatus status, EngineSession session, Operand[] operands, SubMonitor subMonitor) {
 		IProfile profile = session.getProfile();
 		subMonitor.beginTask(null, operands.length);
-		for (int i = 0; i < operands.length; i++) {
-			subMonitor.setWorkRemaining(operands.length - i);
-			if (subMonitor.isCanceled())
-				throw new OperationCanceledException();
-			while (isPaused) {
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					mergeStatus(status, new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.phase_thread_interrupted_error, phaseId), e));
-					return;
-				}
+		int parallelism = supportsParallelOperands() ? getOperandParallelism() : 1;
+		// operands prepared for concurrent execution, which have not been executed yet
+		List<PreparedOperand> batch = parallelism > 1 ? new ArrayList<PreparedOperand>() : null;
+		ExecutorService executor = null;
+		try {
+			for (int i = 0; i < operands.length; i++) {
+				subMonitor.setWorkRemaining(operands.length - i + (batch == null ? 0 : batch.size()));
 				if (subMonitor.isCanceled())
 					throw new OperationCanceledException();
+				while (isPaused) {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						mergeStatus(status, new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.phase_thread_interrupted_error, phaseId), e));
+						return;
+					}
+					if (subMonitor.isCanceled())
+						throw new OperationCanceledException();
+				}
+				Operand operand = operands[i];
+				if (!isApplicable(operand))
+					continue;
+
+				List<ProvisioningAction> actions = getActions(operand);
+				boolean concurrent = batch != null && isConcurrencySafe(actions);
+				if (concurrent) {
+					if (!prepareOperand(status, profile, operand, actions, batch, subMonitor))
+						return;
+					if (batch.size() < parallelism * OPERANDS_PER_THREAD)
+						continue;
+				}
+				if (batch != null && !batch.isEmpty()) {
+					if (executor == null)
+						executor = createOperandExecutor(parallelism);
+					if (!performOperands(status, session, profile, batch, executor, subMonitor))
+						return;
+				}
+				if (concurrent)
+					continue;
+				if (!performOperand(status, session, profile, operand, actions, subMonitor))
+					return;
+			}
+			if (batch != null && !batch.isEmpty()) {
+				if (executor == null)
+					executor = createOperandExecutor(parallelism);
+				performOperands(status, session, profile, batch, executor, subMonitor);
 			}
-			Operand operand = operands[i];
-			if (!isApplicable(operand))
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * Executes the given operand on the calling thread. Returns false if the phase must stop.
+	 */
+	private boolean performOperand(MultiStatus status, EngineSession session, IProfile profile, Operand operand, List<ProvisioningAction> actions, SubMonitor subMonitor) {
+		session.recordOperandStart(operand);
+		operandParameters = new HashMap<String, Object>(phaseParameters);
+		operandParameters.put(PARM_OPERAND, operand);
+		mergeStatus(status, initializeOperand(profile, operand, operandParameters, subMonitor));
+		if (status.matches(IStatus.ERROR | IStatus.CANCEL)) {
+			operandParameters = null;
+			return false;
+		}
+
+		Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
+		if (operandTouchpoint != null) {
+			mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, subMonitor));
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return false;
+
+			operandParameters = touchpointToTouchpointOperandParameters.get(operandTouchpoint);
+		}
+
+		if (actions != null) {
+			Object lastResult = null;
+			for (int j = 0; j < actions.size(); j++) {
+				ProvisioningAction action = actions.get(j);
+				Map<String, Object> parameters = operandParameters;
+				Touchpoint touchpoint = action.getTouchpoint();
+				if (touchpoint != null) {
+					mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, subMonitor));
+					if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+						return false;
+
+					parameters = touchpointToTouchpointOperandParameters.get(touchpoint);
+				}
+				if (lastResult != null) {
+					parameters = new HashMap<String, Object>(parameters);
+					parameters.put(LAST_RESULT_INTERNAL_NAME, lastResult);
+				}
+				parameters = Collections.unmodifiableMap(parameters);
+
+				IStatus actionStatus = null;
+				try {
+					session.recordActionExecute(action, parameters);
+					actionStatus = action.execute(parameters);
+					lastResult = action.getResult();
+				} catch (RuntimeException e) {
+					if (!forced)
+						throw e;
+					// "action.execute" calls user code and might throw an unchecked exception
+					// we catch the error here to gather information on where the problem occurred.
+					actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+				} catch (LinkageError e) {
+					if (!forced)
+						throw e;
+					// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
+					actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+				}
+				if (forced && actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
+					MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
+					result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(this, operand, action), null));
+					LogHelper.log(result);
+					actionStatus = Status.OK_STATUS;
+				}
+				mergeStatus(status, actionStatus);
+				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return false;
+			}
+		}
+		mergeStatus(status, touchpointCompleteOperand(profile, operand, operandParameters, subMonitor));
+		mergeStatus(status, completeOperand(profile, operand, operandParameters, subMonitor));
+		if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+			return false;
+		operandParameters = null;
+		session.recordOperandEnd(operand);
+		subMonitor.worked(1);
+		return true;
+	}
+
+	/**
+	 * Returns whether this phase may execute the actions of operands whose touchpoints are
+	 * concurrency-safe on several threads. Subclasses should override.
+	 */
+	protected boolean supportsParallelOperands() {
+		return false;
+	}
+
+	/*
+	 * Returns whether the touchpoint actions of an operand, between the sequential actions
+	 * of the engine before and after them, can be executed concurrently with those of others.
+	 */
+	private static boolean isConcurrencySafe(List<ProvisioningAction> actions) {
+		if (actions == null)
+			return false;
+		int end = getTouchpointActionsEnd(actions);
+		int start = getTouchpointActionsStart(actions);
+		if (start >= end)
+			return false;
+		for (int j = start; j < end; j++) {
+			ProvisioningAction action = actions.get(j);
+			Touchpoint touchpoint = action.getTouchpoint();
+			if (action instanceof ISequentialAction || touchpoint == null || !touchpoint.isConcurrencySafe())
+				return false;
+		}
+		return true;
+	}
+
+	private static int getTouchpointActionsStart(List<ProvisioningAction> actions) {
+		int start = 0;
+		while (start < actions.size() && actions.get(start) instanceof ISequentialAction)
+			start++;
+		return start;
+	}
+
+	private static int getTouchpointActionsEnd(List<ProvisioningAction> actions) {
+		int end = actions.size();
+		while (end > 0 && actions.get(end - 1) instanceof ISequentialAction)
+			end--;
+		return end;
+	}
+
+	private static int getOperandParallelism() {
+		String parallelism = EngineActivator.getProperty(EngineActivator.PROP_PHASE_PARALLELISM);
+		if (parallelism != null) {
+			try {
+				return Math.max(1, Integer.parseInt(parallelism));
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private ExecutorService createOperandExecutor(int parallelism) {
+		return Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Provisioning Phase " + phaseId); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * Initializes the given operand and the parameters of its actions, and adds it to the
+	 * operands to execute concurrently. Returns false if the phase must stop.
+	 */
+	private boolean prepareOperand(MultiStatus status, IProfile profile, Operand operand, List<ProvisioningAction> actions, List<PreparedOperand> batch, SubMonitor subMonitor) {
+		operandParameters = new HashMap<String, Object>(phaseParameters);
+		operandParameters.put(PARM_OPERAND, operand);
+		mergeStatus(status, initializeOperand(profile, operand, operandParameters, subMonitor));
+		if (status.matches(IStatus.ERROR | IStatus.CANCEL)) {
+			operandParameters = null;
+			return false;
+		}
+
+		Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
+		if (operandTouchpoint != null) {
+			mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, subMonitor));
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return false;
+
+			operandParameters = touchpointToTouchpointOperandParameters.get(operandTouchpoint);
+		}
+
+		PreparedOperand prepared = new PreparedOperand(operand, actions, operandParameters);
+		for (ProvisioningAction action : actions) {
+			Touchpoint touchpoint = action.getTouchpoint();
+			if (touchpoint == null) {
+				prepared.parameters.add(operandParameters);
 				continue;
+			}
+			mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, subMonitor));
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return false;
 
-			session.recordOperandStart(operand);
-			List<ProvisioningAction> actions = getActions(operand);
-			operandParameters = new HashMap<String, Object>(phaseParameters);
-			operandParameters.put(PARM_OPERAND, operand);
-			mergeStatus(status, initializeOperand(profile, operand, operandParameters, subMonitor));
-			if (status.matches(IStatus.ERROR | IStatus.CANCEL)) {
-				operandParameters = null;
-				return;
+			prepared.parameters.add(touchpointToTouchpointOperandParameters.get(touchpoint));
+		}
+		// each operand completes the touchpoints it initialized
+		prepared.touchpointParameters.putAll(touchpointToTouchpointOperandParameters);
+		touchpointToTouchpointOperandParameters.clear();
+		operandParameters = null;
+		batch.add(prepared);
+		return true;
+	}
+
+	/*
+	 * Executes the touchpoint actions of the given operands concurrently, and the actions of
+	 * the engine before and after them on this thread. Then records the executed actions in
+	 * the session and completes the operands, in the order of the phase. Returns false if the
+	 * phase must stop.
+	 */
+	private boolean performOperands(MultiStatus status, EngineSession session, IProfile profile, List<PreparedOperand> batch, ExecutorService executor, SubMonitor subMonitor) {
+		List<PreparedOperand> operands = new ArrayList<PreparedOperand>(batch);
+		batch.clear();
+		operandsCanceled = false;
+
+		// the engine updates the profile and publishes its events on this thread only, so
+		// that the profile does not change while touchpoint actions run
+		boolean stopped = false;
+		for (int i = 0; i < operands.size() && !stopped; i++) {
+			PreparedOperand operand = operands.get(i);
+			pollCanceled(subMonitor);
+			stopped = !operand.execute(0, operand.touchpointActionsStart);
+		}
+		if (!stopped) {
+			try {
+				awaitOperands(operands, executor, subMonitor);
+			} catch (InterruptedException e) {
+				mergeStatus(status, new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.phase_thread_interrupted_error, phaseId), e));
+				awaitTermination(executor);
+				stopped = true;
 			}
+		}
+		for (int i = 0; i < operands.size() && !stopped; i++) {
+			PreparedOperand operand = operands.get(i);
+			pollCanceled(subMonitor);
+			stopped = operand.isStopped() || !operand.execute(operand.touchpointActionsEnd, operand.actions.size());
+		}
 
-			Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
-			if (operandTouchpoint != null) {
-				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, subMonitor));
-				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-					return;
+		// every executed action is recorded so that it is undone on rollback
+		Throwable failure = null;
+		boolean canceled = false;
+		boolean failed = status.matches(IStatus.ERROR | IStatus.CANCEL);
+		for (PreparedOperand operand : operands) {
+			session.recordOperandStart(operand.operand);
+			for (int j = 0; j < operand.executedParameters.size(); j++) {
+				ProvisioningAction action = operand.actions.get(j);
+				session.recordActionExecute(action, operand.executedParameters.get(j));
+				IStatus actionStatus = j < operand.statuses.size() ? operand.statuses.get(j) : null;
+				if (forced && actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
+					MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
+					result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(this, operand.operand, action), null));
+					LogHelper.log(result);
+					actionStatus = Status.OK_STATUS;
+				}
+				if (!failed)
+					mergeStatus(status, actionStatus);
+			}
+			session.recordOperandEnd(operand.operand);
+			// errors other than linkage errors always propagate, as they do when executed sequentially
+			if (failure == null && (!failed || operand.failure instanceof Error))
+				failure = operand.failure;
+			canceled |= operand.canceled;
+			failed |= failure != null || status.matches(IStatus.ERROR | IStatus.CANCEL);
+		}
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+			return false;
+		if (canceled)
+			throw new OperationCanceledException();
 
-				operandParameters = touchpointToTouchpointOperandParameters.get(operandTouchpoint);
+		for (PreparedOperand operand : operands) {
+			mergeStatus(status, touchpointCompleteOperand(profile, operand.touchpointParameters));
+			mergeStatus(status, completeOperand(profile, operand.operand, operand.operandParameters, subMonitor));
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return false;
+			subMonitor.worked(1);
+		}
+		return true;
+	}
+
+	/*
+	 * Executes the touchpoint actions of the given operands on the executor and waits for
+	 * them. The progress monitor is only used on this thread, which polls it and tells the
+	 * operands when they are canceled. A failure that escapes an operand stops it.
+	 */
+	private void awaitOperands(List<PreparedOperand> operands, ExecutorService executor, SubMonitor subMonitor) throws InterruptedException {
+		List<Future<Object>> results = new ArrayList<Future<Object>>(operands.size());
+		for (PreparedOperand operand : operands)
+			results.add(executor.submit(operand));
+		for (int i = 0; i < results.size(); i++) {
+			Future<Object> result = results.get(i);
+			while (true) {
+				pollCanceled(subMonitor);
+				try {
+					result.get(CANCEL_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+					break;
+				} catch (TimeoutException e) {
+					// poll the progress monitor again
+				} catch (ExecutionException e) {
+					operands.get(i).fail(e.getCause());
+					break;
+				}
 			}
+		}
+	}
 
-			if (actions != null) {
-				Object lastResult = null;
-				for (int j = 0; j < actions.size(); j++) {
-					ProvisioningAction action = actions.get(j);
-					Map<String, Object> parameters = operandParameters;
-					Touchpoint touchpoint = action.getTouchpoint();
-					if (touchpoint != null) {
-						mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, subMonitor));
-						if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-							return;
-
-						parameters = touchpointToTouchpointOperandParameters.get(touchpoint);
-					}
-					if (lastResult != null) {
-						parameters = new HashMap<String, Object>(parameters);
-						parameters.put(LAST_RESULT_INTERNAL_NAME, lastResult);
-					}
-					parameters = Collections.unmodifiableMap(parameters);
+	private void pollCanceled(SubMonitor subMonitor) {
+		if (!operandsCanceled && subMonitor.isCanceled())
+			operandsCanceled = true;
+	}
 
-					IStatus actionStatus = null;
-					try {
-						session.recordActionExecute(action, parameters);
-						actionStatus = action.execute(parameters);
-						lastResult = action.getResult();
-					} catch (RuntimeException e) {
-						if (!forced)
-							throw e;
-						// "action.execute" calls user code and might throw an unchecked exception
-						// we catch the error here to gather information on where the problem occurred.
-						actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
-					} catch (LinkageError e) {
-						if (!forced)
-							throw e;
-						// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
-						actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+	/*
+	 * Stops the touchpoint actions that are still running after the calling thread was
+	 * interrupted, and waits for them, so that all executed actions are recorded. The
+	 * termination of the threads happens-before this method returns.
+	 */
+	private static void awaitTermination(ExecutorService executor) {
+		executor.shutdownNow();
+		boolean terminated = false;
+		while (!terminated) {
+			try {
+				terminated = executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				// keep waiting, the interrupt is restored below
+			}
+		}
+		Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * An operand whose touchpoint actions are executed concurrently with those of other
+	 * operands, with the parameters prepared for each of its actions.
+	 */
+	private class PreparedOperand implements Callable<Object> {
+		final Operand operand;
+		final List<ProvisioningAction> actions;
+		final Map<String, Object> operandParameters;
+		final List<Map<String, Object>> parameters = new ArrayList<Map<String, Object>>();
+		final Map<Touchpoint, Map<String, Object>> touchpointParameters = new HashMap<Touchpoint, Map<String, Object>>();
+		// the touchpoint actions, between the sequential actions of the engine
+		final int touchpointActionsStart;
+		final int touchpointActionsEnd;
+
+		// the parameters of the actions that were executed, and the statuses of those that returned
+		final List<Map<String, Object>> executedParameters = new ArrayList<Map<String, Object>>();
+		final List<IStatus> statuses = new ArrayList<IStatus>();
+		private Object lastResult;
+		private boolean stopped;
+		Throwable failure;
+		boolean canceled;
+
+		PreparedOperand(Operand operand, List<ProvisioningAction> actions, Map<String, Object> operandParameters) {
+			this.operand = operand;
+			this.actions = actions;
+			this.operandParameters = operandParameters;
+			touchpointActionsStart = getTouchpointActionsStart(actions);
+			touchpointActionsEnd = getTouchpointActionsEnd(actions);
+		}
+
+		public Object call() {
+			execute(touchpointActionsStart, touchpointActionsEnd);
+			return null;
+		}
+
+		/*
+		 * Stops the operand after the given failure escaped it.
+		 */
+		void fail(Throwable throwable) {
+			if (failure == null)
+				failure = throwable;
+			stopped = true;
+		}
+
+		/*
+		 * Executes the actions in the given range, and returns false if the operand must stop.
+		 */
+		boolean execute(int start, int end) {
+			stopped = !executeActions(start, end);
+			return !stopped;
+		}
+
+		private boolean executeActions(int start, int end) {
+			for (int j = start; j < end; j++) {
+				if (operandsCanceled) {
+					canceled = true;
+					return false;
+				}
+				ProvisioningAction action = actions.get(j);
+				Map<String, Object> actionParameters = parameters.get(j);
+				if (lastResult != null) {
+					actionParameters = new HashMap<String, Object>(actionParameters);
+					actionParameters.put(LAST_RESULT_INTERNAL_NAME, lastResult);
+				}
+				actionParameters = Collections.unmodifiableMap(actionParameters);
+
+				IStatus actionStatus = null;
+				executedParameters.add(actionParameters);
+				try {
+					actionStatus = action.execute(actionParameters);
+					lastResult = action.getResult();
+				} catch (RuntimeException e) {
+					if (!forced) {
+						failure = e;
+						return false;
 					}
-					if (forced && actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
-						MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
-						result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(this, operand, action), null));
-						LogHelper.log(result);
-						actionStatus = Status.OK_STATUS;
+					// "action.execute" calls user code and might throw an unchecked exception
+					// we catch the error here to gather information on where the problem occurred.
+					actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+				} catch (LinkageError e) {
+					if (!forced) {
+						failure = e;
+						return false;
 					}
-					mergeStatus(status, actionStatus);
-					if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-						return;
+					// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
+					actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+				} catch (Error e) {
+					// propagated from the calling thread once the operands are recorded
+					failure = e;
+					return false;
 				}
+				statuses.add(actionStatus);
+				if (actionStatus != null && actionStatus.matches(forced ? IStatus.CANCEL : IStatus.ERROR | IStatus.CANCEL))
+					return false;
 			}
-			mergeStatus(status, touchpointCompleteOperand(profile, operand, operandParameters, subMonitor));
-			mergeStatus(status, completeOperand(profile, operand, operandParameters, subMonitor));
-			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-				return;
-			operandParameters = null;
-			session.recordOperandEnd(operand);
-			subMonitor.worked(1);
+			return true;
+		}
+
+		/*
+		 * Returns whether the operand stopped in the actions it executed last.
+		 */
+		boolean isStopped() {
+			return stopped;
 		}
 	}
 
@@ -331,16 +726,20 @@ public abstract class Phase {
 	}
 
 	IStatus touchpointCompleteOperand(IProfile profile, Operand operand, Map<String, Object> parameters, IProgressMonitor monitor) {
-		if (touchpointToTouchpointOperandParameters.isEmpty())
+		return touchpointCompleteOperand(profile, touchpointToTouchpointOperandParameters);
+	}
+
+	private IStatus touchpointCompleteOperand(IProfile profile, Map<Touchpoint, Map<String, Object>> touchpointOperandParameters) {
+		if (touchpointOperandParameters.isEmpty())
 			return Status.OK_STATUS;
 
 		MultiStatus status = new MultiStatus(EngineActivator.ID, IStatus.OK, null, null);
-		for (Map.Entry<Touchpoint, Map<String, Object>> entry : touchpointToTouchpointOperandParameters.entrySet()) {
+		for (Map.Entry<Touchpoint, Map<String, Object>> entry : touchpointOperandParameters.entrySet()) {
 			Touchpoint touchpoint = entry.getKey();
 			Map<String, Object> touchpointParameters = entry.getValue();
 			mergeStatus(status, touchpoint.completeOperand(profile, touchpointParameters));
 		}
-		touchpointToTouchpointOperandParameters.clear();
+		touchpointOperandParameters.clear();
 		return status;
 	}
 
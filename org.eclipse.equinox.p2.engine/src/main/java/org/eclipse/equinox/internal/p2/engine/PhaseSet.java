@@ -12,6 +12,8 @@ package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.engine.phases.CheckTrust;
+import org.eclipse.equinox.internal.p2.engine.phases.Collect;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
 import org.eclipse.osgi.util.NLS;
@@ -34,6 +36,7 @@ public class PhaseSet implements IPhaseSet {
 		int[] weights = getProgressWeights(operands);
 		int totalWork = getTotalWork(weights);
 		SubMonitor pm = SubMonitor.convert(monitor, totalWork);
+		ArtifactPipeline pipeline = isPipelined() ? new ArtifactPipeline() : null;
 		try {
 			isRunning = true;
 			for (int i = 0; i < phases.length; i++) {
@@ -43,6 +46,7 @@ public class PhaseSet implements IPhaseSet {
 				}
 				Phase phase = phases[i];
 				phase.actionManager = (ActionManager) session.getAgent().getService(ActionManager.SERVICE_NAME);
+				phase.artifactPipeline = pipeline;
 				try {
 					phase.perform(status, session, operands, pm.newChild(weights[i]));
 				} catch (OperationCanceledException e) {
@@ -57,6 +61,7 @@ public class PhaseSet implements IPhaseSet {
 					status.add(new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e));
 				} finally {
 					phase.actionManager = null;
+					phase.artifactPipeline = null;
 				}
 				if (status.matches(IStatus.CANCEL)) {
 					MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.CANCEL, Messages.Engine_Operation_Canceled_By_User, null);
@@ -70,12 +75,28 @@ public class PhaseSet implements IPhaseSet {
 				}
 			}
 		} finally {
+			if (pipeline != null)
+				pipeline.close();
 			pm.done();
 			isRunning = false;
 		}
 		return status;
 	}
 
+	/**
+	 * Returns whether the download of the collect phase is overlapped with the check trust
+	 * phase, which is only the case when the latter immediately follows the former.
+	 */
+	private boolean isPipelined() {
+		if (!Boolean.valueOf(EngineActivator.getProperty(EngineActivator.PROP_PIPELINED_PHASES)).booleanValue())
+			return false;
+		for (int i = 0; i < phases.length - 1; i++) {
+			if (phases[i] instanceof Collect && phases[i + 1] instanceof CheckTrust)
+				return true;
+		}
+		return false;
+	}
+
 	public synchronized boolean pause() {
 		if (isRunning && !isPaused) {
 			isPaused = true;
@@ -11,10 +11,14 @@
  ******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.internal.p2.metadata.*;
@@ -23,50 +27,418 @@ import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.KeyWithLocale;
-import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
-import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.expression.*;
 import org.eclipse.equinox.p2.metadata.index.IIndex;
-import org.eclipse.equinox.p2.query.IQuery;
-import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.metadata.index.IIndexProvider;
+import org.eclipse.equinox.p2.query.*;
 import org.eclipse.osgi.util.NLS;
 
 public class Profile extends IndexProvider<IInstallableUnit> implements IProfile {
 
 	/**
-	 * An index that limits the candidates to those units that has profile properties
+	 * An index that limits the candidates to those units that has profile properties. When the
+	 * query requires a particular profile property, only the units that have it are candidates.
 	 */
 	class ProfilePropertyIndex implements IIndex<IInstallableUnit> {
 		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
-			return iuProperties.keySet().iterator();
+			UnitStorage storage = units;
+			String key = getRequiredKey(ctx, variable, booleanExpr);
+			if (key == null)
+				return storage.iuProperties.keySet().iterator();
+			return storage.getUnitsWithProperty(key).iterator();
+		}
+
+		/*
+		 * Returns the key of a profile property that every match must have, or null if there is none.
+		 */
+		private String getRequiredKey(IEvaluationContext ctx, IExpression variable, IExpression expr) {
+			switch (expr.getExpressionType()) {
+				case IExpression.TYPE_AND :
+					IExpression[] operands = ExpressionUtil.getOperands(expr);
+					for (int i = 0; i < operands.length; i++) {
+						String key = getRequiredKey(ctx, variable, operands[i]);
+						if (key != null)
+							return key;
+					}
+					return null;
+				case IExpression.TYPE_EQUALS :
+				case IExpression.TYPE_NOT_EQUALS :
+					boolean equals = expr.getExpressionType() == IExpression.TYPE_EQUALS;
+					String key = getRequiredKey(ctx, variable, ExpressionUtil.getLHS(expr), ExpressionUtil.getRHS(expr), equals);
+					if (key == null)
+						key = getRequiredKey(ctx, variable, ExpressionUtil.getRHS(expr), ExpressionUtil.getLHS(expr), equals);
+					return key;
+				default :
+					return null;
+			}
+		}
+
+		/*
+		 * Returns the key of profileProperties[key] compared to the given value if the comparison
+		 * can only hold when the property is set: equal to a value, or not equal to null.
+		 */
+		private String getRequiredKey(IEvaluationContext ctx, IExpression variable, IExpression at, IExpression other, boolean equals) {
+			if (at.getExpressionType() != IExpression.TYPE_AT || !isConstant(other))
+				return null;
+			IExpression member = ExpressionUtil.getLHS(at);
+			IExpression keyExpr = ExpressionUtil.getRHS(at);
+			if (member.getExpressionType() != IExpression.TYPE_MEMBER || !InstallableUnit.MEMBER_PROFILE_PROPERTIES.equals(ExpressionUtil.getName(member)) || !variable.equals(ExpressionUtil.getOperand(member)) || !isConstant(keyExpr))
+				return null;
+			Object value = other.evaluate(ctx);
+			if (equals != (value != null))
+				return null;
+			Object key = keyExpr.evaluate(ctx);
+			return key instanceof String ? (String) key : null;
+		}
+
+		private boolean isConstant(IExpression expr) {
+			int type = expr.getExpressionType();
+			return type == IExpression.TYPE_LITERAL || type == IExpression.TYPE_PARAMETER;
+		}
+	}
+
+	/**
+	 * The installable units of a profile and their properties. Snapshots share the
+	 * storage of the profile they were taken from, and whichever side is modified
+	 * first while the storage is shared copies it. The profiles using the storage are
+	 * held weakly, so a snapshot that is no longer referenced stops sharing it once it
+	 * is garbage collected. The indexes over the units are kept up to date as units are
+	 * added and removed. The unit properties and the index over their keys are guarded by
+	 * the storage, since the index may be read by queries on other threads.
+	 */
+	static final class UnitStorage {
+		final IUMap ius;
+		// the property maps are immutable and shared, see UnitProperties
+		final Map<IInstallableUnit, UnitProperties> iuProperties;
+		int unitCount;
+		// incremented whenever a unit is added or removed
+		int modCount;
+		IIndex<IInstallableUnit> idIndex;
+		IncrementalCapabilityIndex capabilityIndex;
+		// profile property key -> units that have the property, built on first use
+		private Map<String, PropertyUnits> unitsByProperty;
+		// the profiles using this storage
+		private final List<WeakReference<Profile>> users = new ArrayList<WeakReference<Profile>>(1);
+
+		UnitStorage(Profile user) {
+			ius = new IUMap();
+			iuProperties = new HashMap<IInstallableUnit, UnitProperties>();
+			users.add(new WeakReference<Profile>(user));
+		}
+
+		private UnitStorage(UnitStorage source, Profile user) {
+			users.add(new WeakReference<Profile>(user));
+			ius = new IUMap();
+			for (Iterator<IInstallableUnit> iter = source.ius.iterator(); iter.hasNext();)
+				ius.add(iter.next());
+			iuProperties = new HashMap<IInstallableUnit, UnitProperties>(source.iuProperties);
+			unitCount = source.unitCount;
+			modCount = source.modCount;
+		}
+
+		void add(IInstallableUnit iu) {
+			ius.add(iu);
+			unitCount++;
+			modCount++;
+			if (capabilityIndex != null)
+				capabilityIndex.added(iu);
+		}
+
+		void remove(IInstallableUnit iu) {
+			ius.remove(iu);
+			unitCount--;
+			modCount++;
+			if (capabilityIndex != null)
+				capabilityIndex.removed(iu);
+		}
+
+		synchronized void clear() {
+			ius.clear();
+			iuProperties.clear();
+			unitsByProperty = null;
+			unitCount = 0;
+			modCount++;
+			if (capabilityIndex != null)
+				capabilityIndex.cleared();
+		}
+
+		synchronized String setProperty(IInstallableUnit iu, String key, String value) {
+			UnitProperties properties = iuProperties.get(iu);
+			if (properties == null)
+				properties = UnitProperties.EMPTY;
+			boolean added = !properties.containsKey(key);
+			String oldValue = properties.get(key);
+			iuProperties.put(iu, properties.with(key, value));
+			if (added && unitsByProperty != null)
+				index(iu, key);
+			return oldValue;
+		}
+
+		synchronized void setProperties(IInstallableUnit iu, Map<String, String> properties) {
+			UnitProperties current = iuProperties.get(iu);
+			if (current == null) {
+				current = UnitProperties.create(properties);
+				if (!current.isEmpty())
+					iuProperties.put(iu, current);
+				if (unitsByProperty != null) {
+					for (String key : current.keySet())
+						index(iu, key);
+				}
+				return;
+			}
+			for (Entry<String, String> entry : properties.entrySet())
+				setProperty(iu, entry.getKey(), entry.getValue());
+		}
+
+		synchronized String removeProperty(IInstallableUnit iu, String key) {
+			UnitProperties properties = iuProperties.get(iu);
+			if (properties == null)
+				return null;
+			if (!properties.containsKey(key))
+				return null;
+			String oldValue = properties.get(key);
+			properties = properties.without(key);
+			if (properties.isEmpty())
+				iuProperties.remove(iu);
+			else
+				iuProperties.put(iu, properties);
+			if (unitsByProperty != null)
+				unindex(iu, key);
+			return oldValue;
+		}
+
+		/**
+		 * Returns the number of distinct property maps held by the units, which are shared
+		 * between units with the same properties.
+		 */
+		synchronized int getPropertyMapCount() {
+			Map<UnitProperties, UnitProperties> maps = new IdentityHashMap<UnitProperties, UnitProperties>();
+			for (UnitProperties properties : iuProperties.values())
+				maps.put(properties, properties);
+			return maps.size();
+		}
+
+		synchronized void removeProperties(IInstallableUnit iu) {
+			UnitProperties properties = iuProperties.remove(iu);
+			if (properties != null && unitsByProperty != null) {
+				for (String key : properties.keySet())
+					unindex(iu, key);
+			}
+		}
+
+		/**
+		 * Returns an unmodifiable set of the units that have the given property.
+		 */
+		synchronized Set<IInstallableUnit> getUnitsWithProperty(String key) {
+			if (unitsByProperty == null) {
+				unitsByProperty = new HashMap<String, PropertyUnits>();
+				for (Entry<IInstallableUnit, UnitProperties> entry : iuProperties.entrySet()) {
+					for (String propertyKey : entry.getValue().keySet())
+						index(entry.getKey(), propertyKey);
+				}
+			}
+			PropertyUnits keyUnits = unitsByProperty.get(key);
+			if (keyUnits == null)
+				return Collections.emptySet();
+			return keyUnits.getView();
+		}
+
+		private void index(IInstallableUnit iu, String key) {
+			PropertyUnits keyUnits = unitsByProperty.get(key);
+			if (keyUnits == null) {
+				keyUnits = new PropertyUnits();
+				unitsByProperty.put(key, keyUnits);
+			}
+			keyUnits.add(iu);
+		}
+
+		private void unindex(IInstallableUnit iu, String key) {
+			PropertyUnits keyUnits = unitsByProperty.get(key);
+			if (keyUnits != null && keyUnits.remove(iu) && keyUnits.isEmpty())
+				unitsByProperty.remove(key);
+		}
+
+		synchronized UnitStorage share(Profile user) {
+			// forget the snapshots that were garbage collected
+			isShared(user);
+			users.add(new WeakReference<Profile>(user));
+			return this;
+		}
+
+		/**
+		 * Stops the given profile from using this storage if it is shared, and returns whether it was.
+		 */
+		synchronized boolean release(Profile user) {
+			if (!isShared(user))
+				return false;
+			removeUser(user);
+			return true;
+		}
+
+		/**
+		 * Returns storage that only the given profile uses, which is this storage unless it is shared.
+		 */
+		synchronized UnitStorage unshare(Profile user) {
+			if (!isShared(user))
+				return this;
+			removeUser(user);
+			return new UnitStorage(this, user);
+		}
+
+		/*
+		 * Returns whether profiles other than the given one use this storage, forgetting
+		 * those that were garbage collected.
+		 */
+		private boolean isShared(Profile user) {
+			boolean shared = false;
+			for (Iterator<WeakReference<Profile>> iterator = users.iterator(); iterator.hasNext();) {
+				Profile profile = iterator.next().get();
+				if (profile == null)
+					iterator.remove();
+				else if (profile != user)
+					shared = true;
+			}
+			return shared;
+		}
+
+		private void removeUser(Profile user) {
+			for (Iterator<WeakReference<Profile>> iterator = users.iterator(); iterator.hasNext();) {
+				if (iterator.next().get() == user) {
+					iterator.remove();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The units that have a profile property. Lookups share an unmodifiable copy of the
+	 * units, which is only copied again after the units changed.
+	 */
+	private static final class PropertyUnits {
+		private final Set<IInstallableUnit> units = new HashSet<IInstallableUnit>();
+		private Set<IInstallableUnit> view;
+
+		void add(IInstallableUnit iu) {
+			if (units.add(iu))
+				view = null;
+		}
+
+		boolean remove(IInstallableUnit iu) {
+			if (!units.remove(iu))
+				return false;
+			view = null;
+			return true;
+		}
+
+		boolean isEmpty() {
+			return units.isEmpty();
+		}
+
+		Set<IInstallableUnit> getView() {
+			if (view == null)
+				view = Collections.unmodifiableSet(new HashSet<IInstallableUnit>(units));
+			return view;
+		}
+	}
+
+	/**
+	 * The effective properties of a profile, the local properties over those of its parent
+	 * profiles, as of the given properties version.
+	 */
+	private static final class EffectiveProperties {
+		final long version;
+		final Map<String, String> properties;
+
+		EffectiveProperties(long version, Map<String, String> properties) {
+			this.version = version;
+			this.properties = properties;
+		}
+	}
+
+	// the source of properties versions, shared by all profiles so that a version is
+	// never used twice for a profile
+	private static final AtomicLong PROPERTIES_VERSIONS = new AtomicLong();
+
+	/**
+	 * A query that profiles always evaluate on the calling thread.
+	 */
+	private static final class SequentialQuery<T> implements IQueryWithIndex<T> {
+		private final IQuery<T> query;
+
+		SequentialQuery(IQuery<T> query) {
+			this.query = query;
+		}
+
+		public IQueryResult<T> perform(IIndexProvider<T> indexProvider) {
+			if (query instanceof IQueryWithIndex<?>)
+				return ((IQueryWithIndex<T>) query).perform(indexProvider);
+			return query.perform(indexProvider.everything());
+		}
+
+		public IQueryResult<T> perform(Iterator<T> iterator) {
+			return query.perform(iterator);
+		}
+
+		public IExpression getExpression() {
+			return query.getExpression();
+		}
+	}
+
+	/**
+	 * Matches a chunk of the units of a profile, with an evaluation context of its own.
+	 */
+	private final class MatchTask implements Callable<List<IInstallableUnit>> {
+		private final IMatchExpression<IInstallableUnit> expression;
+		private final List<IInstallableUnit> chunk;
+
+		MatchTask(IMatchExpression<IInstallableUnit> expression, List<IInstallableUnit> chunk) {
+			this.expression = expression;
+			this.chunk = chunk;
+		}
+
+		public List<IInstallableUnit> call() {
+			IEvaluationContext context = expression.createContext();
+			context.setIndexProvider(Profile.this);
+			List<IInstallableUnit> matches = new ArrayList<IInstallableUnit>();
+			for (IInstallableUnit iu : chunk) {
+				if (expression.isMatch(context, iu))
+					matches.add(iu);
+			}
+			return matches;
 		}
 	}
 
+	// the number of chunks per thread that parallel queries split the units into
+	private static final int CHUNKS_PER_THREAD = 4;
+
 	private final IProvisioningAgent agent;
 	//Internal id of the profile
 	private final String profileId;
 
 	private Profile parentProfile;
 
-	private IIndex<IInstallableUnit> idIndex;
-
 	private IIndex<IInstallableUnit> propertiesIndex;
 
-	private IIndex<IInstallableUnit> capabilityIndex;
-
 	private TranslationSupport translationSupport;
 
 	/**
 	 * 	A collection of child profiles.
 	 */
 	private List<String> subProfileIds; // child profile ids
+	// the child profile instances, whose properties change with those of this profile
+	private List<WeakReference<Profile>> subProfiles;
 
 	/**
 	 * This storage is to be used by the touchpoints to store data.
 	 */
 	private OrderedProperties storage = new OrderedProperties();
+	// the version of the effective properties, bumped on every change of the local
+	// properties of this profile or of any of its parents
+	private volatile long propertiesVersion = PROPERTIES_VERSIONS.incrementAndGet();
+	private volatile EffectiveProperties effectiveProperties;
 
-	private IUMap ius = new IUMap();
-	final Map<IInstallableUnit, OrderedProperties> iuProperties = new HashMap<IInstallableUnit, OrderedProperties>();
+	private UnitStorage units = new UnitStorage(this);
 	private boolean changed = false;
 
 	private long timestamp;
@@ -102,12 +474,50 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		if (profile == parentProfile)
 			return;
 
-		if (parentProfile != null)
+		if (parentProfile != null) {
 			parentProfile.removeSubProfile(profileId);
+			parentProfile.unlinkSubProfile(this);
+		}
 
 		parentProfile = profile;
-		if (parentProfile != null)
+		if (parentProfile != null) {
 			parentProfile.addSubProfile(profileId);
+			parentProfile.linkSubProfile(this);
+		}
+		propertiesChanged();
+	}
+
+	private synchronized void linkSubProfile(Profile subProfile) {
+		if (subProfiles == null)
+			subProfiles = new ArrayList<WeakReference<Profile>>(1);
+		subProfiles.add(new WeakReference<Profile>(subProfile));
+	}
+
+	private synchronized void unlinkSubProfile(Profile subProfile) {
+		if (subProfiles == null)
+			return;
+		for (Iterator<WeakReference<Profile>> iterator = subProfiles.iterator(); iterator.hasNext();) {
+			Profile profile = iterator.next().get();
+			if (profile == null || profile == subProfile)
+				iterator.remove();
+		}
+	}
+
+	/*
+	 * Returns the child profile instances that were not garbage collected.
+	 */
+	private synchronized List<Profile> getLinkedSubProfiles() {
+		if (subProfiles == null)
+			return Collections.emptyList();
+		List<Profile> result = new ArrayList<Profile>(subProfiles.size());
+		for (Iterator<WeakReference<Profile>> iterator = subProfiles.iterator(); iterator.hasNext();) {
+			Profile profile = iterator.next().get();
+			if (profile == null)
+				iterator.remove();
+			else
+				result.add(profile);
+		}
+		return result;
 	}
 
 	/*
@@ -157,11 +567,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfile#getProperty(java.lang.String)
 	 */
 	public String getProperty(String key) {
-		String value = getLocalProperty(key);
-		if (value == null && parentProfile != null) {
-			value = parentProfile.getProperty(key);
-		}
-		return value;
+		return getEffectiveProperties().properties.get(key);
 	}
 
 	/* (non-Javadoc)
@@ -177,25 +583,28 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	 */
 	public void setProperty(String key, String value) {
 		storage.setProperty(key, value);
+		propertiesChanged();
 		changed = true;
 	}
 
 	public void removeProperty(String key) {
 		storage.remove(key);
+		propertiesChanged();
 		changed = true;
 	}
 
 	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
+		// both indexes follow the changes of the units they index
 		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
-			if (idIndex == null)
-				idIndex = new IdIndex(ius);
-			return idIndex;
+			if (units.idIndex == null)
+				units.idIndex = new IdIndex(units.ius);
+			return units.idIndex;
 		}
 
 		if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
-			if (capabilityIndex == null)
-				capabilityIndex = new CapabilityIndex(ius.iterator());
-			return capabilityIndex;
+			if (units.capabilityIndex == null)
+				units.capabilityIndex = new IncrementalCapabilityIndex(units.ius);
+			return units.capabilityIndex;
 		}
 
 		if (InstallableUnit.MEMBER_PROFILE_PROPERTIES.equals(memberName)) {
@@ -207,7 +616,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	}
 
 	public Iterator<IInstallableUnit> everything() {
-		return ius.iterator();
+		return units.ius.iterator();
 	}
 
 	public Object getManagedProperty(Object client, String memberName, Object key) {
@@ -232,38 +641,148 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		return query(query, new NullProgressMonitor());
 	}
 
+	/**
+	 * Returns a query that profiles evaluate on the calling thread, for queries whose
+	 * expressions are not safe to evaluate concurrently.
+	 */
+	public static <T> IQuery<T> sequential(IQuery<T> query) {
+		return new SequentialQuery<T>(query);
+	}
+
+	/**
+	 * Evaluates match queries that no index applies to on several threads when a parallel
+	 * query threshold is set and this profile holds more units than it. Queries that match
+	 * all units or none are not. The units are split into chunks
+	 * that are matched concurrently and merged in the order of the units. Cancelling the
+	 * given monitor stops the merge with an {@link OperationCanceledException}.
+	 */
+	public IQueryResult<IInstallableUnit> query(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
+		// subclasses of ExpressionMatchQuery may match differently than their expression
+		if (query != null && query.getClass() == ExpressionMatchQuery.class) {
+			UnitStorage storage;
+			synchronized (this) {
+				storage = units;
+			}
+			int threshold = getParallelQueryThreshold();
+			IMatchExpression<IInstallableUnit> expression = ((ExpressionMatchQuery<IInstallableUnit>) query).getExpression();
+			if (threshold > 0 && storage.unitCount >= threshold && !isConstant(expression) && !usesIndexedMember(expression)) {
+				IQueryResult<IInstallableUnit> result = parallelQuery(expression, storage, monitor == null ? new NullProgressMonitor() : monitor);
+				if (result != null)
+					return result;
+			}
+		}
+		return super.query(query, monitor);
+	}
+
+	/*
+	 * Returns the matches of the given expression, or null if they could not be evaluated in parallel.
+	 */
+	private IQueryResult<IInstallableUnit> parallelQuery(IMatchExpression<IInstallableUnit> expression, UnitStorage storage, IProgressMonitor monitor) {
+		ExecutorService executor = EngineActivator.getQueryExecutor();
+		if (executor == null)
+			return null;
+		int chunks = Runtime.getRuntime().availableProcessors() * CHUNKS_PER_THREAD;
+		int chunkSize = Math.max(1, (storage.unitCount + chunks - 1) / chunks);
+
+		Collector<IInstallableUnit> result = new Collector<IInstallableUnit>();
+		List<Future<List<IInstallableUnit>>> futures = new ArrayList<Future<List<IInstallableUnit>>>(chunks);
+		try {
+			// each chunk is matched while the next one is filled
+			List<IInstallableUnit> chunk = new ArrayList<IInstallableUnit>(chunkSize);
+			for (Iterator<IInstallableUnit> iterator = storage.ius.iterator(); iterator.hasNext();) {
+				chunk.add(iterator.next());
+				if (chunk.size() == chunkSize || !iterator.hasNext()) {
+					futures.add(executor.submit(new MatchTask(expression, chunk)));
+					chunk = new ArrayList<IInstallableUnit>(chunkSize);
+				}
+			}
+			for (Future<List<IInstallableUnit>> future : futures) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				for (IInstallableUnit iu : future.get())
+					result.accept(iu);
+			}
+		} catch (RejectedExecutionException e) {
+			// the bundle is stopping
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			// evaluated again on the calling thread, which reports the failure
+			return null;
+		} finally {
+			// the chunks that are left when the query did not complete
+			for (Future<List<IInstallableUnit>> future : futures)
+				future.cancel(true);
+		}
+		return result;
+	}
+
+	/*
+	 * Returns whether the given expression matches either all units or none, like the
+	 * query for any unit, which does not need to be evaluated concurrently.
+	 */
+	private static boolean isConstant(IMatchExpression<IInstallableUnit> expression) {
+		IExpression operand;
+		try {
+			operand = ExpressionUtil.getOperand(expression);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return ExpressionUtil.TRUE_EXPRESSION.equals(operand) || ExpressionUtil.FALSE_EXPRESSION.equals(operand);
+	}
+
+	private static boolean usesIndexedMember(IExpression expression) {
+		final boolean[] found = new boolean[1];
+		expression.accept(new IExpressionVisitor() {
+			public boolean visit(IExpression expr) {
+				if (expr.getExpressionType() == IExpression.TYPE_MEMBER) {
+					String name = ExpressionUtil.getName(expr);
+					if (InstallableUnit.MEMBER_ID.equals(name) || InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(name) || InstallableUnit.MEMBER_PROFILE_PROPERTIES.equals(name))
+						found[0] = true;
+				}
+				return !found[0];
+			}
+		});
+		return found[0];
+	}
+
+	private static int getParallelQueryThreshold() {
+		String threshold = EngineActivator.getProperty(EngineActivator.PROP_PROFILE_PARALLEL_QUERY_THRESHOLD);
+		if (threshold != null) {
+			try {
+				return Integer.parseInt(threshold);
+			} catch (NumberFormatException e) {
+				// disabled
+			}
+		}
+		return 0;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfile#getInstallableUnitProperty(org.eclipse.equinox.internal.provisional.p2.metadata.IInstallableUnit, java.lang.String)
 	 */
 	public String getInstallableUnitProperty(IInstallableUnit iu, String key) {
-		OrderedProperties properties = iuProperties.get(iu);
+		UnitProperties properties = units.iuProperties.get(iu);
 		if (properties == null)
 			return null;
 
-		return properties.getProperty(key);
+		return properties.get(key);
 	}
 
 	public String setInstallableUnitProperty(IInstallableUnit iu, String key, String value) {
 		//		String iuKey = createIUKey(iu);
-		OrderedProperties properties = iuProperties.get(iu);
-		if (properties == null) {
-			properties = new OrderedProperties();
-			iuProperties.put(iu, properties);
-		}
-
 		changed = true;
-		return (String) properties.setProperty(key, value);
+		return mutableUnits().setProperty(iu, key, value);
 	}
 
 	public String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
 		//		String iuKey = createIUKey(iu);
-		OrderedProperties properties = iuProperties.get(iu);
-		if (properties == null)
+		if (!units.iuProperties.containsKey(iu))
 			return null;
 
-		String oldValue = properties.remove(key);
-		if (properties.isEmpty())
-			iuProperties.remove(iu);
+		String oldValue = mutableUnits().removeProperty(iu, key);
 
 		changed = true;
 		return oldValue;
@@ -284,12 +803,41 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfile#getProperties()
 	 */
 	public Map<String, String> getProperties() {
-		if (parentProfile == null)
-			return getLocalProperties();
+		return getEffectiveProperties().properties;
+	}
+
+	/**
+	 * Returns the version of the effective properties of this profile. The version changes
+	 * whenever the local properties of this profile or of any of its parents change.
+	 */
+	long getPropertiesVersion() {
+		return propertiesVersion;
+	}
+
+	private EffectiveProperties getEffectiveProperties() {
+		// read before the properties, so that a concurrent change invalidates the result
+		long version = propertiesVersion;
+		EffectiveProperties effective = effectiveProperties;
+		if (effective != null && effective.version == version)
+			return effective;
 
-		Map<String, String> properties = new HashMap<String, String>(parentProfile.getProperties());
+		OrderedProperties properties = new OrderedProperties();
+		if (parentProfile != null)
+			properties.putAll(parentProfile.getProperties());
 		properties.putAll(storage);
-		return OrderedProperties.unmodifiableProperties(properties);
+		effective = new EffectiveProperties(version, OrderedProperties.unmodifiableProperties(properties));
+		effectiveProperties = effective;
+		return effective;
+	}
+
+	/*
+	 * Bumps the properties version of this profile and of its child profiles, so that
+	 * looking up the cached effective properties does not need to visit the parents.
+	 */
+	private void propertiesChanged() {
+		propertiesVersion = PROPERTIES_VERSIONS.incrementAndGet();
+		for (Profile subProfile : getLinkedSubProfiles())
+			subProfile.propertiesChanged();
 	}
 
 	public IProvisioningAgent getProvisioningAgent() {
@@ -302,37 +850,86 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	 */
 	public void addProperties(Map<String, String> properties) {
 		storage.putAll(properties);
+		propertiesChanged();
 		changed = true;
 	}
 
 	public void addInstallableUnit(IInstallableUnit iu) {
 		iu = iu.unresolved();
-		if (ius.contains(iu))
+		if (units.ius.contains(iu))
 			return;
 
-		ius.add(iu);
+		mutableUnits().add(iu);
 		changed = true;
 	}
 
 	public void removeInstallableUnit(IInstallableUnit iu) {
 		iu = iu.unresolved();
-		ius.remove(iu);
+		if (units.ius.contains(iu))
+			mutableUnits().remove(iu);
 		changed = true;
 	}
 
+	/**
+	 * Returns the number of installable units in this profile, not including
+	 * those of its parents.
+	 */
+	public int getInstallableUnitCount() {
+		return units.unitCount;
+	}
+
+	/**
+	 * Returns the number of distinct installable unit property maps in this profile, for tracing
+	 * how many maps are shared between its units.
+	 */
+	int getPropertyMapCount() {
+		return units.getPropertyMapCount();
+	}
+
+	/**
+	 * Returns a counter that changes whenever an installable unit is added to or removed
+	 * from this profile, not including its parents.
+	 */
+	public int getModificationCount() {
+		return units.modCount;
+	}
+
+	/**
+	 * Returns whether this profile and the given one share their installable units, in which
+	 * case they hold the same units with the same properties.
+	 */
+	boolean sharesUnits(Profile other) {
+		return units == other.units;
+	}
+
+	/*
+	 * Returns the unit storage of this profile for modification, copying it first if it is
+	 * shared with a snapshot.
+	 */
+	private UnitStorage mutableUnits() {
+		UnitStorage storage = units.unshare(this);
+		if (storage != units) {
+			synchronized (this) {
+				units = storage;
+			}
+		}
+		return storage;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfile#getInstallableUnitProperties(org.eclipse.equinox.internal.provisional.p2.metadata.IInstallableUnit)
 	 */
 	public Map<String, String> getInstallableUnitProperties(IInstallableUnit iu) {
-		OrderedProperties properties = iuProperties.get(iu);
+		UnitProperties properties = units.iuProperties.get(iu);
 		if (properties == null)
-			properties = new OrderedProperties();
+			return UnitProperties.EMPTY;
 
-		return OrderedProperties.unmodifiableProperties(properties);
+		return properties;
 	}
 
 	public void clearLocalProperties() {
 		storage.clear();
+		propertiesChanged();
 		changed = true;
 	}
 
@@ -345,8 +942,17 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	}
 
 	public void clearInstallableUnits() {
-		ius.clear();
-		iuProperties.clear();
+		// the cleared storage is not copied, a shared one is just replaced
+		UnitStorage storage = units;
+		if (!storage.release(this)) {
+			storage.clear();
+		} else {
+			UnitStorage cleared = new UnitStorage(this);
+			cleared.modCount = storage.modCount + 1;
+			synchronized (this) {
+				units = cleared;
+			}
+		}
 		changed = true;
 	}
 
@@ -366,39 +972,41 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 			}
 		}
 
-		for (Iterator<IInstallableUnit> iter = ius.iterator(); iter.hasNext();) {
-			IInstallableUnit iu = iter.next();
-			snapshot.addInstallableUnit(iu);
-			Map<String, String> properties = getInstallableUnitProperties(iu);
-			if (properties != null)
-				snapshot.addInstallableUnitProperties(iu, properties);
+		// the units are shared until either profile is modified
+		synchronized (this) {
+			snapshot.units = units.share(snapshot);
 		}
 		snapshot.setChanged(false);
 		return snapshot;
 	}
 
 	public void addInstallableUnitProperties(IInstallableUnit iu, Map<String, String> properties) {
-		for (Entry<String, String> entry : properties.entrySet()) {
-			setInstallableUnitProperty(iu, entry.getKey(), entry.getValue());
-		}
+		if (properties.isEmpty())
+			return;
+		mutableUnits().setProperties(iu, properties);
+		changed = true;
 	}
 
 	public void clearInstallableUnitProperties(IInstallableUnit iu) {
-		iuProperties.remove(iu);
+		if (units.iuProperties.containsKey(iu))
+			mutableUnits().removeProperties(iu);
 		changed = true;
 	}
 
 	public void clearOrphanedInstallableUnitProperties() {
-		Set<IInstallableUnit> keys = iuProperties.keySet();
+		Set<IInstallableUnit> keys = units.iuProperties.keySet();
 		//		Set orphans = new HashSet();
 		Collection<IInstallableUnit> toRemove = new ArrayList<IInstallableUnit>();
 		for (IInstallableUnit iu : keys) {
-			if (!ius.contains(iu))
+			if (!units.ius.contains(iu))
 				toRemove.add(iu);
 		}
 
+		if (toRemove.isEmpty())
+			return;
+		UnitStorage storage = mutableUnits();
 		for (IInstallableUnit iu : toRemove) {
-			iuProperties.remove(iu);
+			storage.removeProperties(iu);
 		}
 		//		List iuKeys = new ArrayList();
 		//		for (Iterator it = ius.iterator(); it.hasNext();)
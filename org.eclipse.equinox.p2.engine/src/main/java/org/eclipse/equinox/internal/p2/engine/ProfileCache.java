@@ -0,0 +1,169 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.util.*;
+
+/**
+ * A cache bounded by the number and the total weight of its entries. When a bound is
+ * exceeded, the least recently used entries that the eviction policy allows to be
+ * evicted are removed. The cache counts hits, loads, evictions and the time spent
+ * loading entries.
+ */
+public class ProfileCache<K, V> {
+
+	/**
+	 * Decides the weight of cache entries and whether they may be evicted.
+	 */
+	public interface IEvictionPolicy<K, V> {
+		public int getWeight(K key, V value);
+
+		public boolean isEvictable(K key, V value);
+	}
+
+	private final String name;
+	private final int maxSize;
+	private final long maxWeight;
+	private final IEvictionPolicy<K, V> policy;
+	// access ordered, the least recently used entry first
+	private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+	private final Map<K, Integer> weights = new HashMap<K, Integer>();
+	private long weight;
+
+	private long hits;
+	private long loads;
+	private long evictions;
+	private long loadTime;
+
+	/**
+	 * @param name the name of the cache, used for debug output
+	 * @param maxSize the maximum number of entries, or 0 if the number of entries is not bounded
+	 * @param maxWeight the maximum total weight of the entries, or 0 if the weight is not bounded
+	 * @param policy the policy deciding the weight of entries and whether they may be evicted
+	 */
+	public ProfileCache(String name, int maxSize, long maxWeight, IEvictionPolicy<K, V> policy) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.maxWeight = maxWeight;
+		this.policy = policy;
+	}
+
+	/**
+	 * Returns the cached value for the given key, or <code>null</code> if it is not cached.
+	 */
+	public synchronized V get(K key) {
+		V value = entries.get(key);
+		if (value != null)
+			hits++;
+		return value;
+	}
+
+	public synchronized boolean containsKey(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Adds a value, or updates the weight of a cached value, and evicts entries
+	 * as needed to stay within the bounds of the cache.
+	 */
+	public synchronized void put(K key, V value) {
+		remove(key);
+		int entryWeight = policy.getWeight(key, value);
+		entries.put(key, value);
+		weights.put(key, new Integer(entryWeight));
+		weight += entryWeight;
+		trim();
+	}
+
+	public synchronized V remove(K key) {
+		Integer entryWeight = weights.remove(key);
+		if (entryWeight != null)
+			weight -= entryWeight.intValue();
+		return entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		weights.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Records that a value missing from the cache was loaded in the given time.
+	 */
+	public synchronized void loaded(long nanos) {
+		loads++;
+		loadTime += nanos;
+	}
+
+	/**
+	 * Evicts the least recently used evictable entries until the cache is within its bounds.
+	 */
+	public synchronized void trim() {
+		if (!isOverBounds())
+			return;
+		for (Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator(); iterator.hasNext() && isOverBounds();) {
+			Map.Entry<K, V> entry = iterator.next();
+			if (!policy.isEvictable(entry.getKey(), entry.getValue()))
+				continue;
+			iterator.remove();
+			weight -= weights.remove(entry.getKey()).intValue();
+			evictions++;
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(name, "Evicted " + entry.getKey() + ": " + this); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	private boolean isOverBounds() {
+		return (maxSize > 0 && entries.size() > maxSize) || (maxWeight > 0 && weight > maxWeight);
+	}
+
+	/**
+	 * Returns the keys of the cached entries, the least recently used first.
+	 */
+	public synchronized List<K> keys() {
+		return new ArrayList<K>(entries.keySet());
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of values that were missing from the cache and had to be loaded.
+	 */
+	public synchronized long getMissCount() {
+		return loads;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the total time, in milliseconds, spent loading values missing from the cache.
+	 */
+	public synchronized long getLoadTime() {
+		return loadTime / 1000000;
+	}
+
+	public synchronized String toString() {
+		return name + " [size=" + entries.size() + ", weight=" + weight + ", hits=" + hits + ", misses=" + loads + ", evictions=" + evictions + ", loadTime=" + getLoadTime() + "ms]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+	}
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.util.*;
+import org.eclipse.equinox.p2.engine.IProfileDelta;
+import org.eclipse.equinox.p2.metadata.IVersionedId;
+
+/**
+ * The differences between two revisions of a profile, as computed by {@link ProfileRevision}.
+ */
+public class ProfileDelta implements IProfileDelta {
+
+	private final String profileId;
+	private final long fromTimestamp;
+	private final long toTimestamp;
+	final List<IVersionedId> addedUnits = new ArrayList<IVersionedId>();
+	final List<IVersionedId> removedUnits = new ArrayList<IVersionedId>();
+	final List<IVersionedId> changedUnits = new ArrayList<IVersionedId>();
+	final Map<IVersionedId, Map<String, String>> unitPropertyChanges = new LinkedHashMap<IVersionedId, Map<String, String>>();
+	final Map<String, String> propertyChanges = new LinkedHashMap<String, String>();
+
+	ProfileDelta(String profileId, long fromTimestamp, long toTimestamp) {
+		this.profileId = profileId;
+		this.fromTimestamp = fromTimestamp;
+		this.toTimestamp = toTimestamp;
+	}
+
+	public String getProfileId() {
+		return profileId;
+	}
+
+	public long getFromTimestamp() {
+		return fromTimestamp;
+	}
+
+	public long getToTimestamp() {
+		return toTimestamp;
+	}
+
+	public List<IVersionedId> getAddedUnits() {
+		return Collections.unmodifiableList(addedUnits);
+	}
+
+	public List<IVersionedId> getRemovedUnits() {
+		return Collections.unmodifiableList(removedUnits);
+	}
+
+	public List<IVersionedId> getChangedUnits() {
+		return Collections.unmodifiableList(changedUnits);
+	}
+
+	public Map<IVersionedId, Map<String, String>> getUnitPropertyChanges() {
+		return Collections.unmodifiableMap(unitPropertyChanges);
+	}
+
+	public Map<String, String> getPropertyChanges() {
+		return Collections.unmodifiableMap(propertyChanges);
+	}
+
+	public boolean isEmpty() {
+		return addedUnits.isEmpty() && removedUnits.isEmpty() && unitPropertyChanges.isEmpty() && propertyChanges.isEmpty();
+	}
+
+	public String toString() {
+		return "ProfileDelta(" + profileId + ", " + fromTimestamp + " -> " + toTimestamp + ") [added=" + addedUnits.size() + ", removed=" + removedUnits.size() + ", changed=" + changedUnits.size() + ", properties=" + propertyChanges.size() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.util.*;
+import java.util.Map.Entry;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+
+/**
+ * The differences between two states of a profile: the changed local properties,
+ * the added and removed installable units and the changed installable unit properties.
+ * The installable units are compared with a merge of both profiles' units sorted by
+ * id and version.
+ */
+public class ProfileDiff {
+
+	// a null value marks a removed property
+	private final Map<String, String> properties = new LinkedHashMap<String, String>();
+	private final List<IInstallableUnit> addedUnits = new ArrayList<IInstallableUnit>();
+	private final List<IInstallableUnit> removedUnits = new ArrayList<IInstallableUnit>();
+	// changes of units that are kept or added, a null value marks a removed property
+	private final Map<IInstallableUnit, Map<String, String>> unitProperties = new LinkedHashMap<IInstallableUnit, Map<String, String>>();
+
+	/**
+	 * Computes the differences between the current state of a profile and its updated state.
+	 */
+	public static ProfileDiff compute(Profile current, Profile updated) {
+		ProfileDiff diff = new ProfileDiff();
+		diff(current.getLocalProperties(), updated.getLocalProperties(), diff.properties);
+		// a snapshot that was not modified still shares the units of its source
+		if (current.sharesUnits(updated))
+			return diff;
+
+		List<IInstallableUnit> currentUnits = ProfileWriter.getSortedUnits(current);
+		List<IInstallableUnit> updatedUnits = ProfileWriter.getSortedUnits(updated);
+		Map<String, String> noProperties = Collections.emptyMap();
+		int i = 0;
+		int j = 0;
+		while (i < currentUnits.size() || j < updatedUnits.size()) {
+			int order;
+			if (i == currentUnits.size())
+				order = 1;
+			else if (j == updatedUnits.size())
+				order = -1;
+			else
+				order = ProfileWriter.UNIT_ORDER.compare(currentUnits.get(i), updatedUnits.get(j));
+
+			if (order < 0) {
+				diff.removedUnits.add(currentUnits.get(i++));
+				continue;
+			}
+			IInstallableUnit iu = updatedUnits.get(j++);
+			Map<String, String> currentProperties = noProperties;
+			if (order > 0)
+				diff.addedUnits.add(iu);
+			else
+				currentProperties = current.getInstallableUnitProperties(currentUnits.get(i++));
+			Map<String, String> changes = new LinkedHashMap<String, String>();
+			diff(currentProperties, updated.getInstallableUnitProperties(iu), changes);
+			if (!changes.isEmpty())
+				diff.unitProperties.put(iu, changes);
+		}
+		return diff;
+	}
+
+	private static void diff(Map<String, String> current, Map<String, String> updated, Map<String, String> changes) {
+		for (Entry<String, String> entry : updated.entrySet()) {
+			if (!entry.getValue().equals(current.get(entry.getKey())))
+				changes.put(entry.getKey(), entry.getValue());
+		}
+		for (String key : current.keySet()) {
+			if (!updated.containsKey(key))
+				changes.put(key, null);
+		}
+	}
+
+	/**
+	 * Applies these differences to the given profile, which must be in the current state
+	 * they were computed from.
+	 */
+	public void applyTo(Profile profile) {
+		for (Entry<String, String> entry : properties.entrySet()) {
+			if (entry.getValue() == null)
+				profile.removeProperty(entry.getKey());
+			else
+				profile.setProperty(entry.getKey(), entry.getValue());
+		}
+		for (IInstallableUnit iu : removedUnits) {
+			profile.removeInstallableUnit(iu);
+			profile.clearInstallableUnitProperties(iu);
+		}
+		for (IInstallableUnit iu : addedUnits)
+			profile.addInstallableUnit(iu);
+		for (Entry<IInstallableUnit, Map<String, String>> entry : unitProperties.entrySet()) {
+			for (Entry<String, String> property : entry.getValue().entrySet()) {
+				if (property.getValue() == null)
+					profile.removeInstallableUnitProperty(entry.getKey(), property.getKey());
+				else
+					profile.setInstallableUnitProperty(entry.getKey(), property.getKey(), property.getValue());
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return properties.isEmpty() && addedUnits.isEmpty() && removedUnits.isEmpty() && unitProperties.isEmpty();
+	}
+
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	public List<IInstallableUnit> getAddedUnits() {
+		return addedUnits;
+	}
+
+	public List<IInstallableUnit> getRemovedUnits() {
+		return removedUnits;
+	}
+
+	public Map<IInstallableUnit, Map<String, String>> getUnitProperties() {
+		return unitProperties;
+	}
+
+	public String toString() {
+		return "ProfileDiff [properties=" + properties.size() + ", added=" + addedUnits.size() + ", removed=" + removedUnits.size() + ", unitProperties=" + unitProperties.size() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+}
@@ -0,0 +1,513 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import org.eclipse.equinox.p2.metadata.*;
+
+/**
+ * A journal of profile revisions, kept in a profile directory next to the profile
+ * files. Each delta record holds the delta between a revision and the revision it was
+ * derived from, so that a revision can be restored by replaying the records on top of
+ * the nearest revision that was saved as a full profile file (a checkpoint).
+ * <p>
+ * The journal is a sequence of records, each an int length followed by the payload:
+ * <pre>
+ * byte kind, long timestamp
+ * long base timestamp                                          - delta only
+ * int count, {key, value or null}*                             - local profile properties
+ * int count, {id, version}*                                    - removed units, delta only
+ * int count, {id, version, int count, {key, value or null}*}*  - unit properties, delta only
+ * int count, int length, {unit XML fragment}*                  - added units, delta only
+ * </pre>
+ * A delta record holds the changes of the local properties of the profile. A checkpoint
+ * record holds the local properties of a checkpoint, since a profile file holds the
+ * properties inherited from the parent profile as well. A removal record marks a revision
+ * as deleted. A truncated record at the end of the journal, left by an interrupted append,
+ * is ignored and overwritten. Records are appended, and the journal is rewritten without
+ * the records of deleted revisions when it is compacted.
+ */
+public class ProfileJournal {
+
+	public static final String JOURNAL_FILE = "profile.journal"; //$NON-NLS-1$
+
+	private static final byte KIND_DELTA = 1;
+	private static final byte KIND_REMOVED = 2;
+	private static final byte KIND_CHECKPOINT = 3;
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	/**
+	 * The changes that turn one profile revision into the next one.
+	 */
+	public static class Delta {
+		// a null value marks a removed property
+		final Map<String, String> properties = new LinkedHashMap<String, String>();
+		final List<IVersionedId> removedUnits = new ArrayList<IVersionedId>();
+		final Map<IVersionedId, Map<String, String>> unitProperties = new LinkedHashMap<IVersionedId, Map<String, String>>();
+		int addedUnitCount;
+		byte[] addedUnits;
+
+		/**
+		 * Computes the delta between the current state of a profile and its updated state.
+		 */
+		public static Delta compute(Profile current, Profile updated) throws IOException {
+			return compute(ProfileDiff.compute(current, updated));
+		}
+
+		/**
+		 * Returns the delta recording the given differences between two states of a profile.
+		 */
+		public static Delta compute(ProfileDiff diff) throws IOException {
+			Delta delta = new Delta();
+			delta.properties.putAll(diff.getProperties());
+			for (IInstallableUnit iu : diff.getRemovedUnits())
+				delta.removedUnits.add(new VersionedId(iu.getId(), iu.getVersion()));
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			if (!diff.getAddedUnits().isEmpty()) {
+				ProfileSnapshotWriter.UnitWriter unitWriter = new ProfileSnapshotWriter.UnitWriter(new ByteArrayOutputStream());
+				for (IInstallableUnit iu : diff.getAddedUnits()) {
+					buffer.write(unitWriter.writeUnit(iu));
+					delta.addedUnitCount++;
+				}
+			}
+			for (Entry<IInstallableUnit, Map<String, String>> entry : diff.getUnitProperties().entrySet()) {
+				IInstallableUnit iu = entry.getKey();
+				delta.unitProperties.put(new VersionedId(iu.getId(), iu.getVersion()), entry.getValue());
+			}
+			delta.addedUnits = buffer.toByteArray();
+			return delta;
+		}
+
+		public Map<String, String> getProperties() {
+			return properties;
+		}
+
+		public List<IVersionedId> getRemovedUnits() {
+			return removedUnits;
+		}
+
+		public Map<IVersionedId, Map<String, String>> getUnitProperties() {
+			return unitProperties;
+		}
+
+		public int getAddedUnitCount() {
+			return addedUnitCount;
+		}
+
+		public byte[] getAddedUnits() {
+			return addedUnits;
+		}
+	}
+
+	// A delta record in the journal file
+	private static class Record {
+		final long baseTimestamp;
+		final long offset;
+		final int length;
+
+		Record(long baseTimestamp, long offset, int length) {
+			this.baseTimestamp = baseTimestamp;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private final File file;
+	// timestamp -> record of all revisions that have not been removed
+	private final Map<Long, Record> records = new HashMap<Long, Record>();
+	// timestamp -> record of the local properties of the checkpoints that have not been removed
+	private final Map<Long, Record> checkpoints = new HashMap<Long, Record>();
+	// the length of the journal file covered by the records, -1 if not read yet
+	private long indexedLength = -1;
+
+	public ProfileJournal(File profileDirectory) {
+		this.file = new File(profileDirectory, JOURNAL_FILE);
+	}
+
+	/**
+	 * Returns whether the given revision is stored in the journal.
+	 */
+	public synchronized boolean contains(long timestamp) {
+		index();
+		return records.containsKey(new Long(timestamp));
+	}
+
+	/**
+	 * Returns the revisions stored in the journal, in ascending order.
+	 */
+	public synchronized long[] getTimestamps() {
+		index();
+		long[] timestamps = new long[records.size()];
+		int i = 0;
+		for (Long timestamp : records.keySet())
+			timestamps[i++] = timestamp.longValue();
+		Arrays.sort(timestamps);
+		return timestamps;
+	}
+
+	/**
+	 * Returns the latest revision stored in the journal, or 0 if there is none.
+	 */
+	public synchronized long getLatestTimestamp() {
+		long latest = 0;
+		for (long timestamp : getTimestamps())
+			latest = Math.max(latest, timestamp);
+		return latest;
+	}
+
+	/**
+	 * Returns the number of journal records that must be replayed to restore the given revision.
+	 */
+	public synchronized int getDepth(long timestamp) {
+		index();
+		int depth = 0;
+		for (Record record = records.get(new Long(timestamp)); record != null; record = records.get(new Long(record.baseTimestamp)))
+			depth++;
+		return depth;
+	}
+
+	/**
+	 * Returns the revision, not stored in the journal, that the given revision is derived from.
+	 */
+	public synchronized long getCheckpoint(long timestamp) {
+		index();
+		long checkpoint = timestamp;
+		for (Record record = records.get(new Long(timestamp)); record != null; record = records.get(new Long(record.baseTimestamp)))
+			checkpoint = record.baseTimestamp;
+		return checkpoint;
+	}
+
+	/**
+	 * Returns the journal revisions that are directly derived from the given revision.
+	 */
+	public synchronized long[] getDependents(long timestamp) {
+		index();
+		List<Long> dependents = new ArrayList<Long>();
+		for (Entry<Long, Record> entry : records.entrySet()) {
+			if (entry.getValue().baseTimestamp == timestamp)
+				dependents.add(entry.getKey());
+		}
+		long[] result = new long[dependents.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = dependents.get(i).longValue();
+		return result;
+	}
+
+	/**
+	 * Returns the deltas to replay on top of the checkpoint of the given revision to restore
+	 * it, starting with the oldest.
+	 */
+	public synchronized List<Delta> getDeltas(long timestamp) throws IOException {
+		index();
+		LinkedList<Record> chain = new LinkedList<Record>();
+		for (Record record = records.get(new Long(timestamp)); record != null; record = records.get(new Long(record.baseTimestamp)))
+			chain.addFirst(record);
+
+		List<Delta> deltas = new ArrayList<Delta>(chain.size());
+		RandomAccessFile input = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			for (Record record : chain)
+				deltas.add(readDelta(new DataInputStream(new ByteArrayInputStream(read(input, record)))));
+		} finally {
+			input.close();
+		}
+		return deltas;
+	}
+
+	/**
+	 * Appends a revision, derived from the given base revision, to the journal.
+	 */
+	public synchronized void append(long timestamp, long baseTimestamp, Delta delta) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(buffer);
+		output.writeByte(KIND_DELTA);
+		output.writeLong(timestamp);
+		output.writeLong(baseTimestamp);
+		writeProperties(output, delta.properties);
+		output.writeInt(delta.removedUnits.size());
+		for (IVersionedId unit : delta.removedUnits) {
+			writeString(output, unit.getId());
+			writeString(output, unit.getVersion().toString());
+		}
+		output.writeInt(delta.unitProperties.size());
+		for (Entry<IVersionedId, Map<String, String>> entry : delta.unitProperties.entrySet()) {
+			writeString(output, entry.getKey().getId());
+			writeString(output, entry.getKey().getVersion().toString());
+			writeProperties(output, entry.getValue());
+		}
+		output.writeInt(delta.addedUnitCount);
+		output.writeInt(delta.addedUnits.length);
+		output.write(delta.addedUnits);
+		output.flush();
+
+		long offset = write(buffer.toByteArray());
+		records.put(new Long(timestamp), new Record(baseTimestamp, offset, buffer.size()));
+	}
+
+	/**
+	 * Records the local properties of the given revision, which was saved as a full profile
+	 * file, and compacts the journal.
+	 */
+	public synchronized void checkpoint(long timestamp, Map<String, String> localProperties) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(buffer);
+		output.writeByte(KIND_CHECKPOINT);
+		output.writeLong(timestamp);
+		writeProperties(output, localProperties);
+		output.flush();
+
+		long offset = write(buffer.toByteArray());
+		checkpoints.put(new Long(timestamp), new Record(timestamp, offset, buffer.size()));
+		if (needsCompaction())
+			compact();
+	}
+
+	/**
+	 * Returns the local properties of the given checkpoint, or <code>null</code> if they
+	 * were not recorded.
+	 */
+	public synchronized Map<String, String> getCheckpointProperties(long timestamp) throws IOException {
+		index();
+		Record record = checkpoints.get(new Long(timestamp));
+		if (record == null)
+			return null;
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(read(record)));
+		if (input.readByte() != KIND_CHECKPOINT)
+			throw new IOException(file.getAbsolutePath());
+		input.readLong();
+		Map<String, String> properties = new LinkedHashMap<String, String>();
+		readProperties(input, properties);
+		return properties;
+	}
+
+	/**
+	 * Returns whether the journal file holds records of deleted revisions.
+	 */
+	public synchronized boolean needsCompaction() {
+		index();
+		long liveLength = 0;
+		for (Record record : records.values())
+			liveLength += 4 + record.length;
+		for (Record record : checkpoints.values())
+			liveLength += 4 + record.length;
+		return indexedLength > liveLength;
+	}
+
+	/**
+	 * Rewrites the journal file with the records of the revisions that were not removed,
+	 * or deletes it if there are none.
+	 */
+	public synchronized void compact() throws IOException {
+		index();
+		SortedMap<Long, Record> live = new TreeMap<Long, Record>(checkpoints);
+		live.putAll(records);
+		if (live.isEmpty()) {
+			if (file.exists() && !file.delete())
+				throw new IOException(file.getAbsolutePath());
+			records.clear();
+			checkpoints.clear();
+			indexedLength = 0;
+			return;
+		}
+
+		File compacted = new File(file.getParentFile(), JOURNAL_FILE + ".tmp"); //$NON-NLS-1$
+		RandomAccessFile input = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)));
+			try {
+				for (Record record : live.values()) {
+					byte[] payload = read(input, record);
+					output.writeInt(payload.length);
+					output.write(payload);
+				}
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+		if (!compacted.renameTo(file)) {
+			// some platforms do not replace existing files
+			file.delete();
+			if (!compacted.renameTo(file)) {
+				compacted.delete();
+				throw new IOException(file.getAbsolutePath());
+			}
+		}
+		// the offsets of the records changed
+		indexedLength = -1;
+		index();
+	}
+
+	/**
+	 * Marks the given revision as removed, and the local properties recorded for it
+	 * if it is a checkpoint.
+	 */
+	public synchronized void remove(long timestamp) throws IOException {
+		index();
+		if (!records.containsKey(new Long(timestamp)) && !checkpoints.containsKey(new Long(timestamp)))
+			return;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(buffer);
+		output.writeByte(KIND_REMOVED);
+		output.writeLong(timestamp);
+		output.flush();
+		write(buffer.toByteArray());
+		records.remove(new Long(timestamp));
+		checkpoints.remove(new Long(timestamp));
+	}
+
+	/*
+	 * Reads the payload of the given record.
+	 */
+	private byte[] read(Record record) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			return read(input, record);
+		} finally {
+			input.close();
+		}
+	}
+
+	private static byte[] read(RandomAccessFile input, Record record) throws IOException {
+		byte[] payload = new byte[record.length];
+		input.seek(record.offset);
+		input.readFully(payload);
+		return payload;
+	}
+
+	/*
+	 * Appends a record with the given payload and returns the offset of the payload.
+	 */
+	private long write(byte[] payload) throws IOException {
+		index();
+		RandomAccessFile output = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			// drop a truncated record left by an interrupted append
+			output.setLength(indexedLength);
+			output.seek(indexedLength);
+			output.writeInt(payload.length);
+			output.write(payload);
+			long offset = indexedLength + 4;
+			indexedLength = output.length();
+			return offset;
+		} finally {
+			output.close();
+		}
+	}
+
+	/*
+	 * Reads the record index from the journal file, unless it is up to date.
+	 */
+	private void index() {
+		long length = file.length();
+		if (length == indexedLength)
+			return;
+		records.clear();
+		checkpoints.clear();
+		indexedLength = 0;
+		if (!file.isFile())
+			return;
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				long offset = 0;
+				while (offset + 4 <= length) {
+					int recordLength = input.readInt();
+					if (recordLength < 9 || offset + 4 + recordLength > length)
+						break;
+					byte kind = input.readByte();
+					Long timestamp = new Long(input.readLong());
+					if (kind == KIND_DELTA) {
+						records.put(timestamp, new Record(input.readLong(), offset + 4, recordLength));
+					} else if (kind == KIND_CHECKPOINT) {
+						checkpoints.put(timestamp, new Record(timestamp.longValue(), offset + 4, recordLength));
+					} else if (kind == KIND_REMOVED) {
+						records.remove(timestamp);
+						checkpoints.remove(timestamp);
+					} else {
+						break;
+					}
+					int read = kind == KIND_DELTA ? 17 : 9;
+					if (input.skipBytes(recordLength - read) != recordLength - read)
+						break;
+					offset += 4 + recordLength;
+					indexedLength = offset;
+				}
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			// keep the records read so far
+		}
+	}
+
+	private Delta readDelta(DataInputStream input) throws IOException {
+		if (input.readByte() != KIND_DELTA)
+			throw new IOException(file.getAbsolutePath());
+		// timestamp and base timestamp are in the index
+		input.readLong();
+		input.readLong();
+
+		Delta delta = new Delta();
+		readProperties(input, delta.properties);
+		int removed = input.readInt();
+		for (int i = 0; i < removed; i++)
+			delta.removedUnits.add(new VersionedId(readString(input), readString(input)));
+		int changed = input.readInt();
+		for (int i = 0; i < changed; i++) {
+			IVersionedId unit = new VersionedId(readString(input), readString(input));
+			Map<String, String> properties = new LinkedHashMap<String, String>();
+			readProperties(input, properties);
+			delta.unitProperties.put(unit, properties);
+		}
+		delta.addedUnitCount = input.readInt();
+		delta.addedUnits = new byte[input.readInt()];
+		input.readFully(delta.addedUnits);
+		return delta;
+	}
+
+	private static void writeProperties(DataOutputStream output, Map<String, String> properties) throws IOException {
+		output.writeInt(properties.size());
+		for (Entry<String, String> entry : properties.entrySet()) {
+			writeString(output, entry.getKey());
+			writeString(output, entry.getValue());
+		}
+	}
+
+	private static void readProperties(DataInputStream input, Map<String, String> properties) throws IOException {
+		int size = input.readInt();
+		for (int i = 0; i < size; i++)
+			properties.put(readString(input), readString(input));
+	}
+
+	private static void writeString(DataOutputStream output, String string) throws IOException {
+		if (string == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
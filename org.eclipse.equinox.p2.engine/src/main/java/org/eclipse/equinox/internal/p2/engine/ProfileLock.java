@@ -109,6 +109,30 @@ public class ProfileLock {
 		}
 	}
 
+	/**
+	 * Attempts to obtain an exclusive write lock on a profile without blocking. Unlike
+	 * {@link #lock()}, this method returns <code>false</code> if the lock is currently
+	 * held or awaited by any thread in this process, including the calling thread.
+	 * 
+	 * @return <code>true</code> if the lock was successfully obtained by this thread,
+	 * and <code>false</code> if it is held by this or another process.
+	 */
+	public boolean tryLock() {
+		synchronized (lock) {
+			if (lockHolder != null || waiting != 0)
+				return false;
+			try {
+				if (!location.lock())
+					return false;
+
+				lockHolder = Thread.currentThread();
+			} catch (IOException e) {
+				throw new IllegalStateException(NLS.bind(Messages.SimpleProfileRegistry_Profile_not_locked_due_to_exception, e.getLocalizedMessage()));
+			}
+			return true;
+		}
+	}
+
 	/**
 	 * Releases the exclusive write lock on a profile. This method must only be called
 	 * by a thread that currently owns the lock.
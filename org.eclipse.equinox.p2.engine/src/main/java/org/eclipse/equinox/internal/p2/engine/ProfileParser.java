@@ -10,23 +10,160 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import javax.xml.parsers.ParserConfigurationException;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
-import org.eclipse.equinox.p2.metadata.IInstallableUnit;
-import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.*;
 import org.osgi.framework.BundleContext;
-import org.xml.sax.Attributes;
+import org.xml.sax.*;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  *	An abstract XML parser class for parsing profiles as written by the ProfileWriter.
  */
-public abstract class ProfileParser extends MetadataParser implements ProfileXMLConstants {
+public abstract class ProfileParser extends MetadataParser implements ProfileXMLConstants, ProfileSnapshotConstants {
+
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	// guards the shared SAX parser factory, which is reconfigured whenever a reader is created
+	private static final Object PARSER_FACTORY_LOCK = new Object();
+
+	// configured readers that are not in use, shared by all profile parsers
+	private static final LinkedList<XMLReader> READER_POOL = new LinkedList<XMLReader>();
+	private static final int MAX_POOLED_READERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	// installed on pooled readers so that they do not keep the handlers of their last parse
+	private static final ContentHandler NO_HANDLER = new DefaultHandler();
+
+	// canonical instances of the ids, versions and properties of the parsed units, which
+	// repeat across profiles and their revisions
+	private static final WeakInterner<String> STRINGS = new WeakInterner<String>();
+	private static final WeakInterner<Version> VERSIONS = new WeakInterner<Version>();
+
+	// whether units read from binary snapshots are decoded on first access
+	private boolean lazyUnits;
 
 	public ProfileParser(BundleContext context, String bundleId) {
 		super(context, bundleId);
 	}
 
+	/**
+	 * Sets whether the installable units read from binary snapshots are only decoded when
+	 * their metadata is first accessed. Profile files are always parsed completely.
+	 */
+	public void setLazyUnits(boolean lazyUnits) {
+		this.lazyUnits = lazyUnits;
+	}
+
+	protected static String intern(String string) {
+		return STRINGS.intern(string);
+	}
+
+	/**
+	 * Returns the key of the installable unit properties of the unit with the given id and version.
+	 */
+	protected static IVersionedId createIUKey(String id, Version version) {
+		return new VersionedId(STRINGS.intern(id), VERSIONS.intern(version));
+	}
+
+	protected static IVersionedId createIUKey(IVersionedId unit) {
+		return createIUKey(unit.getId(), unit.getVersion());
+	}
+
+	/**
+	 * Returns a copy of the given properties with canonical keys and values.
+	 */
+	protected static Map<String, String> internProperties(Map<String, String> properties) {
+		Map<String, String> result = new LinkedHashMap<String, String>(properties.size());
+		for (Map.Entry<String, String> entry : properties.entrySet())
+			result.put(STRINGS.intern(entry.getKey()), STRINGS.intern(entry.getValue()));
+		return result;
+	}
+
+	/**
+	 * Parses the fragment of a single installable unit, as referenced by a {@link LazyInstallableUnit}.
+	 */
+	static IInstallableUnit parseUnitFragment(byte[] blocks, int offset, int length) throws IOException {
+		return new PooledReaderParser().parseUnitFragments(blocks, offset, length, 1)[0];
+	}
+
+	/**
+	 * Parses the given stream with the given handler, using a reader from the pool of readers.
+	 */
+	static void parse(InputStream stream, ContentHandler handler) throws IOException {
+		new PooledReaderParser().parseWith(stream, handler);
+	}
+
+	/**
+	 * Parses the fragments of lazily read installable units, and streams that other
+	 * classes handle themselves.
+	 */
+	private static class PooledReaderParser extends ProfileParser {
+		PooledReaderParser() {
+			super(EngineActivator.getContext(), EngineActivator.ID);
+		}
+
+		void parseWith(InputStream stream, ContentHandler handler) throws IOException {
+			try {
+				acquireXMLReader();
+				xmlReader.setContentHandler(handler);
+				xmlReader.parse(new InputSource(stream));
+			} catch (SAXException e) {
+				throw new IOException(e.getMessage());
+			} catch (ParserConfigurationException e) {
+				throw new IOException(e.getMessage());
+			} finally {
+				releaseXMLReader();
+			}
+		}
+
+		protected Object getRootObject() {
+			return null;
+		}
+
+		protected String getErrorMessage() {
+			return Messages.SimpleProfileRegistry_Parser_Error_Parsing_Registry;
+		}
+	}
+
+	/**
+	 * Creates the XML reader of this parser. Profiles may be parsed by several
+	 * parsers at once, so the reader is not created concurrently.
+	 */
+	protected void createXMLReader() throws ParserConfigurationException, SAXException {
+		synchronized (PARSER_FACTORY_LOCK) {
+			getParser();
+		}
+	}
+
+	/**
+	 * Makes a configured XML reader the reader of this parser, taking it from the pool of
+	 * readers if one is available. The reader must be released after the parse.
+	 */
+	protected void acquireXMLReader() throws ParserConfigurationException, SAXException {
+		synchronized (READER_POOL) {
+			xmlReader = READER_POOL.poll();
+		}
+		if (xmlReader == null)
+			createXMLReader();
+	}
+
+	/**
+	 * Returns the reader of this parser to the pool of readers.
+	 */
+	protected void releaseXMLReader() {
+		XMLReader reader = xmlReader;
+		xmlReader = null;
+		if (reader == null)
+			return;
+		reader.setContentHandler(NO_HANDLER);
+		synchronized (READER_POOL) {
+			if (READER_POOL.size() < MAX_POOLED_READERS)
+				READER_POOL.add(reader);
+		}
+	}
+
 	protected class ProfileHandler extends RootHandler {
 
 		private final String[] required = new String[] {ID_ATTRIBUTE};
@@ -112,12 +249,11 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 			if (iusPropertiesHandler == null)
 				return null;
 
-			Map<String, Map<String, String>> iusPropertiesMap = iusPropertiesHandler.getIUsPropertiesMap();
+			Map<IVersionedId, Map<String, String>> iusPropertiesMap = iusPropertiesHandler.getIUsPropertiesMap();
 			if (iusPropertiesMap == null)
 				return null;
 
-			String iuIdentity = iu.getId() + "_" + iu.getVersion().toString(); //$NON-NLS-1$
-			return iusPropertiesMap.get(iuIdentity);
+			return iusPropertiesMap.get(new VersionedId(iu.getId(), iu.getVersion()));
 		}
 	}
 
@@ -125,23 +261,24 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 
 		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
 
-		private String iuIdentity;
-		private Map<String, Map<String, String>> iusPropertiesMap;
+		private IVersionedId iuIdentity;
+		private Map<IVersionedId, Map<String, String>> iusPropertiesMap;
 		private PropertiesHandler propertiesHandler;
 
-		public IUPropertiesHandler(AbstractHandler parentHandler, Attributes attributes, Map<String, Map<String, String>> iusPropertiesMap) {
+		public IUPropertiesHandler(AbstractHandler parentHandler, Attributes attributes, Map<IVersionedId, Map<String, String>> iusPropertiesMap) {
 			super(parentHandler, IU_PROPERTIES_ELEMENT);
 			this.iusPropertiesMap = iusPropertiesMap;
 
 			String values[] = parseRequiredAttributes(attributes, required);
 			String id = values[0];
 			Version version = checkVersion(IU_PROPERTIES_ELEMENT, VERSION_ATTRIBUTE, values[1]);
-			iuIdentity = id + "_" + version.toString(); //$NON-NLS-1$
+			if (id != null && version != null)
+				iuIdentity = createIUKey(id, version);
 		}
 
 		protected void finished() {
 			if (isValidXML() && iuIdentity != null && propertiesHandler != null) {
-				iusPropertiesMap.put(iuIdentity, propertiesHandler.getProperties());
+				iusPropertiesMap.put(iuIdentity, internProperties(propertiesHandler.getProperties()));
 			}
 		}
 
@@ -156,16 +293,16 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 
 	protected class IUsPropertiesHandler extends AbstractHandler {
 
-		private Map<String, Map<String, String>> iusPropertiesMap;
+		private Map<IVersionedId, Map<String, String>> iusPropertiesMap;
 
 		public IUsPropertiesHandler(AbstractHandler parentHandler, Attributes attributes) {
 			super(parentHandler, IUS_PROPERTIES_ELEMENT);
 			String sizeStr = parseOptionalAttribute(attributes, COLLECTION_SIZE_ATTRIBUTE);
 			int size = (sizeStr != null ? new Integer(sizeStr).intValue() : 4);
-			iusPropertiesMap = new LinkedHashMap<String, Map<String, String>>(size);
+			iusPropertiesMap = new LinkedHashMap<IVersionedId, Map<String, String>>(size);
 		}
 
-		public Map<String, Map<String, String>> getIUsPropertiesMap() {
+		public Map<IVersionedId, Map<String, String>> getIUsPropertiesMap() {
 			return iusPropertiesMap;
 		}
 
@@ -177,4 +314,255 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 			}
 		}
 	}
+
+	/**
+	 * A profile handler whose content was read from a binary snapshot or
+	 * replayed from the profile journal.
+	 */
+	protected class SnapshotProfileHandler extends ProfileHandler {
+		private final String parentId;
+		private final long snapshotTimestamp;
+		private final Map<String, String> properties;
+		private final IInstallableUnit[] units;
+		private final Map<IVersionedId, Map<String, String>> iusProperties;
+
+		protected SnapshotProfileHandler(String profileId, String parentId, long timestamp, Map<String, String> properties, IInstallableUnit[] units, Map<IVersionedId, Map<String, String>> iusProperties) {
+			super(profileId);
+			this.parentId = parentId;
+			this.snapshotTimestamp = timestamp;
+			this.properties = properties;
+			this.units = units;
+			this.iusProperties = iusProperties;
+		}
+
+		public String getParentId() {
+			return parentId;
+		}
+
+		public long getTimestamp() {
+			return snapshotTimestamp;
+		}
+
+		public Map<String, String> getProperties() {
+			return properties;
+		}
+
+		public IInstallableUnit[] getInstallableUnits() {
+			return units;
+		}
+
+		public Map<String, String> getIUProperties(IInstallableUnit iu) {
+			return iusProperties.get(new VersionedId(iu.getId(), iu.getVersion()));
+		}
+	}
+
+	/**
+	 * Reads a binary profile snapshot as written by the ProfileSnapshotWriter. Returns
+	 * <code>null</code> if the snapshot was not derived from the profile file with the
+	 * given timestamp and length, in which case the profile file must be parsed instead.
+	 * Lazily read units whose fragment cannot be decoded are read from the given fallback.
+	 */
+	protected ProfileHandler parseSnapshot(InputStream stream, long timestamp, long sourceLength, LazyInstallableUnit.IFallback fallback) throws IOException {
+		DataInputStream input = new DataInputStream(stream);
+		if (!readSnapshotHeader(input, timestamp, sourceLength))
+			return null;
+		String parentId = readSnapshotParentId(input);
+
+		String[] strings = new String[input.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[input.readInt()];
+			input.readFully(bytes);
+			strings[i] = intern(new String(bytes, UTF_8));
+		}
+
+		String profileId = strings[input.readInt()];
+		Map<String, String> properties = readSnapshotProperties(input, strings);
+		int unitCount = input.readInt();
+		Map<IVersionedId, Map<String, String>> iusProperties = new HashMap<IVersionedId, Map<String, String>>(unitCount);
+		IVersionedId[] keys = new IVersionedId[unitCount];
+		int[] offsets = new int[unitCount];
+		int[] lengths = new int[unitCount];
+		int[] checksums = new int[unitCount];
+		byte[] kinds = new byte[unitCount];
+		for (int i = 0; i < unitCount; i++) {
+			String id = strings[input.readInt()];
+			keys[i] = createIUKey(id, Version.create(strings[input.readInt()]));
+			kinds[i] = input.readByte();
+			offsets[i] = input.readInt();
+			lengths[i] = input.readInt();
+			checksums[i] = input.readInt();
+			Map<String, String> iuProperties = readSnapshotProperties(input, strings);
+			if (!iuProperties.isEmpty())
+				iusProperties.put(keys[i], iuProperties);
+		}
+		byte[] blocks = new byte[input.readInt()];
+		input.readFully(blocks);
+		// rejected now rather than when a lazily read unit is decoded
+		for (int i = 0; i < unitCount; i++) {
+			if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] > blocks.length - lengths[i])
+				throw new IOException(getErrorMessage());
+		}
+
+		IInstallableUnit[] units;
+		if (lazyUnits) {
+			// only decoded when their metadata is first needed, except for fragments and
+			// patches which must be of their own type
+			units = new IInstallableUnit[unitCount];
+			CRC32 checksum = new CRC32();
+			for (int i = 0; i < unitCount; i++) {
+				// rejected now rather than when the unit is accessed
+				checksum.reset();
+				checksum.update(blocks, offsets[i], lengths[i]);
+				if ((int) checksum.getValue() != checksums[i])
+					throw new IOException(getErrorMessage());
+				if (kinds[i] == UNIT_KIND_PLAIN) {
+					// a unit that is never accessed must not keep the other fragments
+					byte[] fragment = new byte[lengths[i]];
+					System.arraycopy(blocks, offsets[i], fragment, 0, lengths[i]);
+					units[i] = new LazyInstallableUnit(keys[i].getId(), keys[i].getVersion(), fragment, fallback);
+				} else {
+					units[i] = parseUnitFragment(blocks, offsets[i], lengths[i]);
+				}
+			}
+		} else {
+			units = parseUnitFragments(blocks, 0, blocks.length, unitCount);
+		}
+		return new SnapshotProfileHandler(profileId, parentId, timestamp, properties, units, iusProperties);
+	}
+
+	/**
+	 * Reads the header of a binary profile snapshot. Returns whether it is a snapshot of the
+	 * profile file with the given timestamp and length.
+	 */
+	protected static boolean readSnapshotHeader(DataInputStream input, long timestamp, long sourceLength) throws IOException {
+		if (input.readInt() != SNAPSHOT_MAGIC || input.readInt() != CURRENT_SNAPSHOT_VERSION)
+			return false;
+		return input.readLong() == timestamp && input.readLong() == sourceLength;
+	}
+
+	/**
+	 * Reads the parent id that follows the header of a binary profile snapshot, or
+	 * <code>null</code> for a root profile.
+	 */
+	protected static String readSnapshotParentId(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length == NO_PARENT)
+			return null;
+		if (length < 0)
+			throw new IOException(Messages.SimpleProfileRegistry_Parser_Error_Parsing_Registry);
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return intern(new String(bytes, UTF_8));
+	}
+
+	/**
+	 * Restores a profile revision by replaying the given journal deltas, oldest first,
+	 * on top of the content of its checkpoint. The deltas change the local properties of
+	 * the profile, which are the given local properties of the checkpoint if they were
+	 * recorded, and the properties read from the checkpoint otherwise.
+	 */
+	protected ProfileHandler replayJournal(ProfileHandler checkpoint, Map<String, String> checkpointProperties, long timestamp, List<ProfileJournal.Delta> deltas) throws IOException {
+		Map<String, String> properties = new LinkedHashMap<String, String>();
+		if (checkpointProperties != null)
+			properties.putAll(internProperties(checkpointProperties));
+		else if (checkpoint.getProperties() != null)
+			properties.putAll(checkpoint.getProperties());
+		Map<IVersionedId, IInstallableUnit> units = new LinkedHashMap<IVersionedId, IInstallableUnit>();
+		Map<IVersionedId, Map<String, String>> iusProperties = new HashMap<IVersionedId, Map<String, String>>();
+		IInstallableUnit[] checkpointUnits = checkpoint.getInstallableUnits();
+		if (checkpointUnits != null) {
+			for (int i = 0; i < checkpointUnits.length; i++) {
+				IVersionedId iuIdentity = createIUKey(checkpointUnits[i]);
+				units.put(iuIdentity, checkpointUnits[i]);
+				Map<String, String> iuProperties = checkpoint.getIUProperties(checkpointUnits[i]);
+				if (iuProperties != null && !iuProperties.isEmpty())
+					iusProperties.put(iuIdentity, new LinkedHashMap<String, String>(iuProperties));
+			}
+		}
+
+		for (ProfileJournal.Delta delta : deltas) {
+			applyChanges(properties, delta.getProperties());
+			for (IVersionedId unit : delta.getRemovedUnits()) {
+				IVersionedId iuIdentity = new VersionedId(unit.getId(), unit.getVersion());
+				units.remove(iuIdentity);
+				iusProperties.remove(iuIdentity);
+			}
+			IInstallableUnit[] added = parseUnitFragments(delta.getAddedUnits(), delta.getAddedUnitCount());
+			for (int i = 0; i < added.length; i++)
+				units.put(createIUKey(added[i]), added[i]);
+			for (Map.Entry<IVersionedId, Map<String, String>> entry : delta.getUnitProperties().entrySet()) {
+				IVersionedId iuIdentity = createIUKey(entry.getKey());
+				Map<String, String> iuProperties = iusProperties.get(iuIdentity);
+				if (iuProperties == null) {
+					iuProperties = new LinkedHashMap<String, String>();
+					iusProperties.put(iuIdentity, iuProperties);
+				}
+				applyChanges(iuProperties, internProperties(entry.getValue()));
+				if (iuProperties.isEmpty())
+					iusProperties.remove(iuIdentity);
+			}
+		}
+		return new SnapshotProfileHandler(checkpoint.getProfileId(), checkpoint.getParentId(), timestamp, properties, units.values().toArray(new IInstallableUnit[units.size()]), iusProperties);
+	}
+
+	private static void applyChanges(Map<String, String> properties, Map<String, String> changes) {
+		for (Map.Entry<String, String> change : changes.entrySet()) {
+			if (change.getValue() == null)
+				properties.remove(change.getKey());
+			else
+				properties.put(change.getKey(), change.getValue());
+		}
+	}
+
+	private Map<String, String> readSnapshotProperties(DataInputStream input, String[] strings) throws IOException {
+		int size = input.readInt();
+		Map<String, String> properties = new LinkedHashMap<String, String>(size);
+		for (int i = 0; i < size; i++)
+			properties.put(readSnapshotString(input, strings), readSnapshotString(input, strings));
+		return properties;
+	}
+
+	/**
+	 * Reads a property key or value of a snapshot, which is <code>null</code> if its index is {@link #NO_STRING}.
+	 */
+	protected static String readSnapshotString(DataInputStream input, String[] strings) throws IOException {
+		int index = input.readInt();
+		return index == NO_STRING ? null : strings[index];
+	}
+
+	/**
+	 * Parses unit blocks, which are bare unit elements, in a single pass by wrapping
+	 * them in a minimal profile document.
+	 */
+	protected IInstallableUnit[] parseUnitFragments(byte[] blocks, int unitCount) throws IOException {
+		return parseUnitFragments(blocks, 0, blocks.length, unitCount);
+	}
+
+	/**
+	 * Parses the unit blocks in the given range of the given bytes.
+	 */
+	protected IInstallableUnit[] parseUnitFragments(byte[] blocks, int offset, int length, int unitCount) throws IOException {
+		if (unitCount == 0)
+			return new IInstallableUnit[0];
+
+		String header = "<?xml version='1.0' encoding='UTF-8'?><" + PROFILE_ELEMENT + ' ' + ID_ATTRIBUTE + "='snapshot'><" + INSTALLABLE_UNITS_ELEMENT + ' ' + COLLECTION_SIZE_ATTRIBUTE + "='" + unitCount + "'>"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		String footer = "</" + INSTALLABLE_UNITS_ELEMENT + "></" + PROFILE_ELEMENT + '>'; //$NON-NLS-1$ //$NON-NLS-2$
+		InputStream stream = new SequenceInputStream(new SequenceInputStream(new ByteArrayInputStream(header.getBytes(UTF_8)), new ByteArrayInputStream(blocks, offset, length)), new ByteArrayInputStream(footer.getBytes(UTF_8)));
+		try {
+			acquireXMLReader();
+			ProfileHandler unitsHandler = new ProfileHandler();
+			xmlReader.setContentHandler(new DocHandler(PROFILE_ELEMENT, unitsHandler));
+			xmlReader.parse(new InputSource(stream));
+			IInstallableUnit[] units = unitsHandler.getInstallableUnits();
+			if (units == null || units.length != unitCount)
+				throw new IOException(getErrorMessage());
+			return units;
+		} catch (SAXException e) {
+			throw new IOException(e.getMessage());
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			releaseXMLReader();
+		}
+	}
 }
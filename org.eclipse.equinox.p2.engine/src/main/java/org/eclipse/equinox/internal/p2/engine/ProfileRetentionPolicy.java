@@ -0,0 +1,85 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.util.*;
+
+/**
+ * Decides which revisions of a profile are kept. A revision is kept if it is among
+ * the most recent revisions, if it is younger than the maximum age, or if it is
+ * tagged with the tag state property. The current revision is always kept. Without
+ * a count or age limit every revision is kept.
+ */
+public class ProfileRetentionPolicy {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private final int count;
+	private final long age;
+	private final String tag;
+
+	/**
+	 * @param count the number of most recent revisions to keep, or 0 if not limited by count
+	 * @param days the number of days revisions are kept, or 0 if not limited by age
+	 * @param tag the state property key marking revisions that are always kept, or <code>null</code>
+	 */
+	public ProfileRetentionPolicy(int count, int days, String tag) {
+		this.count = count;
+		this.age = days * DAY;
+		this.tag = tag;
+	}
+
+	/**
+	 * Returns whether this policy ever removes revisions.
+	 */
+	public boolean isEnabled() {
+		return count > 0 || age > 0;
+	}
+
+	/**
+	 * Returns the state property key marking revisions that are always kept, or <code>null</code>.
+	 */
+	public String getTag() {
+		return tag;
+	}
+
+	/**
+	 * Returns the revisions that are not kept, the most recent first.
+	 * @param timestamps the timestamps of the revisions of the profile
+	 * @param current the timestamp of the current revision
+	 * @param tagged the timestamps, as strings, of the revisions tagged with the tag state property
+	 * @param now the current time
+	 */
+	public long[] getExpired(long[] timestamps, long current, Set<String> tagged, long now) {
+		if (!isEnabled())
+			return new long[0];
+		long[] sorted = timestamps.clone();
+		Arrays.sort(sorted);
+		List<Long> expired = new ArrayList<Long>();
+		for (int i = sorted.length - 1; i >= 0; i--) {
+			long timestamp = sorted[i];
+			if (timestamp == current || tagged.contains(String.valueOf(timestamp)))
+				continue;
+			boolean expiredByCount = count == 0 || sorted.length - i > count;
+			boolean expiredByAge = age == 0 || now - timestamp > age;
+			if (expiredByCount && expiredByAge)
+				expired.add(new Long(timestamp));
+		}
+		long[] result = new long[expired.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = expired.get(i).longValue();
+		return result;
+	}
+
+	public String toString() {
+		return "count=" + count + ", age=" + (age / DAY) + "d, tag=" + tag; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
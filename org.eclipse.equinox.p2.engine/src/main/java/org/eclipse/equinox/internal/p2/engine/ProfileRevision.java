@@ -0,0 +1,220 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.IProfileDelta;
+import org.eclipse.equinox.p2.metadata.*;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * The identities and properties of the installable units of a profile revision, and
+ * its profile properties, without the installable units themselves. Revisions are read
+ * from the index of a binary snapshot or by scanning a profile file, and compared with
+ * a merge of their units sorted by id and version.
+ */
+public class ProfileRevision {
+
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	static final Comparator<IVersionedId> ID_ORDER = new Comparator<IVersionedId>() {
+		public int compare(IVersionedId id1, IVersionedId id2) {
+			int idCompare = id1.getId().compareTo(id2.getId());
+			if (idCompare != 0)
+				return idCompare;
+			return id1.getVersion().compareTo(id2.getVersion());
+		}
+	};
+
+	final Map<String, String> properties = new LinkedHashMap<String, String>();
+	// sorted by id and version
+	final List<IVersionedId> units = new ArrayList<IVersionedId>();
+	final Map<IVersionedId, Map<String, String>> unitProperties = new HashMap<IVersionedId, Map<String, String>>();
+
+	private ProfileRevision() {
+		// use a read or from method
+	}
+
+	/**
+	 * Returns the revision held by the given profile.
+	 */
+	public static ProfileRevision fromProfile(IProfile profile) {
+		ProfileRevision revision = new ProfileRevision();
+		revision.properties.putAll(profile instanceof Profile ? ((Profile) profile).getLocalProperties() : profile.getProperties());
+		for (IInstallableUnit iu : ProfileWriter.getSortedUnits(profile)) {
+			IVersionedId unit = new VersionedId(iu.getId(), iu.getVersion());
+			revision.units.add(unit);
+			Map<String, String> iuProperties = profile.getInstallableUnitProperties(iu);
+			if (!iuProperties.isEmpty())
+				revision.unitProperties.put(unit, new LinkedHashMap<String, String>(iuProperties));
+		}
+		return revision;
+	}
+
+	/**
+	 * Reads the revision from the index of a binary snapshot, without reading its units.
+	 * Returns <code>null</code> if the snapshot is not the snapshot of the given profile file.
+	 */
+	public static ProfileRevision readSnapshot(File snapshotFile, File profileFile, long timestamp) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+		try {
+			if (!ProfileParser.readSnapshotHeader(input, timestamp, profileFile.length()))
+				return null;
+			ProfileParser.readSnapshotParentId(input);
+
+			String[] strings = new String[input.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] bytes = new byte[input.readInt()];
+				input.readFully(bytes);
+				strings[i] = new String(bytes, UTF_8);
+			}
+
+			ProfileRevision revision = new ProfileRevision();
+			// profile id
+			input.readInt();
+			readProperties(input, strings, revision.properties);
+			int unitCount = input.readInt();
+			for (int i = 0; i < unitCount; i++) {
+				IVersionedId unit = new VersionedId(strings[input.readInt()], strings[input.readInt()]);
+				// unit kind, block offset, length and checksum
+				input.readByte();
+				input.readInt();
+				input.readInt();
+				input.readInt();
+				revision.units.add(unit);
+				Map<String, String> iuProperties = new LinkedHashMap<String, String>();
+				readProperties(input, strings, iuProperties);
+				if (!iuProperties.isEmpty())
+					revision.unitProperties.put(unit, iuProperties);
+			}
+			return revision;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void readProperties(DataInputStream input, String[] strings, Map<String, String> properties) throws IOException {
+		int size = input.readInt();
+		for (int i = 0; i < size; i++)
+			properties.put(ProfileParser.readSnapshotString(input, strings), ProfileParser.readSnapshotString(input, strings));
+	}
+
+	/**
+	 * Reads the revision by scanning a profile file, without building its units.
+	 */
+	public static ProfileRevision readProfile(File profileFile) throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(profileFile));
+		try {
+			if (profileFile.getName().endsWith(SimpleProfileRegistry.PROFILE_GZ_EXT))
+				input = new GZIPInputStream(input);
+			ProfileRevision revision = new ProfileRevision();
+			ProfileParser.parse(input, revision.new ScanHandler());
+			// profile files are written sorted, this only guards against hand edited ones
+			Collections.sort(revision.units, ID_ORDER);
+			return revision;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Collects the profile properties, the unit identities and the unit properties of a
+	 * profile file, skipping the content of the units.
+	 */
+	private class ScanHandler extends DefaultHandler implements ProfileXMLConstants, org.eclipse.equinox.internal.p2.metadata.repository.io.XMLConstants {
+		private final List<String> path = new ArrayList<String>();
+		private Map<String, String> currentUnitProperties;
+
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			int depth = path.size();
+			path.add(qName);
+			if (depth == 2 && INSTALLABLE_UNIT_ELEMENT.equals(qName) && INSTALLABLE_UNITS_ELEMENT.equals(path.get(1))) {
+				units.add(new VersionedId(attributes.getValue(ID_ATTRIBUTE), attributes.getValue(VERSION_ATTRIBUTE)));
+			} else if (depth == 2 && IU_PROPERTIES_ELEMENT.equals(qName) && IUS_PROPERTIES_ELEMENT.equals(path.get(1))) {
+				currentUnitProperties = new LinkedHashMap<String, String>();
+				unitProperties.put(new VersionedId(attributes.getValue(ID_ATTRIBUTE), attributes.getValue(VERSION_ATTRIBUTE)), currentUnitProperties);
+			} else if (depth == 2 && PROPERTY_ELEMENT.equals(qName) && PROPERTIES_ELEMENT.equals(path.get(1))) {
+				properties.put(attributes.getValue(PROPERTY_NAME_ATTRIBUTE), attributes.getValue(PROPERTY_VALUE_ATTRIBUTE));
+			} else if (depth == 4 && PROPERTY_ELEMENT.equals(qName) && currentUnitProperties != null) {
+				currentUnitProperties.put(attributes.getValue(PROPERTY_NAME_ATTRIBUTE), attributes.getValue(PROPERTY_VALUE_ATTRIBUTE));
+			}
+		}
+
+		public void endElement(String uri, String localName, String qName) {
+			path.remove(path.size() - 1);
+			if (path.size() == 2)
+				currentUnitProperties = null;
+		}
+	}
+
+	/**
+	 * Returns the differences between this revision and the given newer one.
+	 */
+	public IProfileDelta compareTo(ProfileRevision to, String profileId, long fromTimestamp, long toTimestamp) {
+		ProfileDelta delta = new ProfileDelta(profileId, fromTimestamp, toTimestamp);
+		diff(properties, to.properties, delta.propertyChanges);
+		Map<String, String> noProperties = Collections.emptyMap();
+		int i = 0;
+		int j = 0;
+		while (i < units.size() || j < to.units.size()) {
+			int order;
+			if (i == units.size())
+				order = 1;
+			else if (j == to.units.size())
+				order = -1;
+			else
+				order = ID_ORDER.compare(units.get(i), to.units.get(j));
+
+			if (order < 0) {
+				delta.removedUnits.add(units.get(i++));
+				continue;
+			}
+			IVersionedId unit = to.units.get(j++);
+			Map<String, String> fromProperties = noProperties;
+			if (order > 0) {
+				delta.addedUnits.add(unit);
+			} else {
+				fromProperties = getUnitProperties(unitProperties, units.get(i++));
+			}
+			Map<String, String> changes = new LinkedHashMap<String, String>();
+			diff(fromProperties, getUnitProperties(to.unitProperties, unit), changes);
+			if (changes.isEmpty())
+				continue;
+			if (order == 0)
+				delta.changedUnits.add(unit);
+			delta.unitPropertyChanges.put(unit, changes);
+		}
+		return delta;
+	}
+
+	private static Map<String, String> getUnitProperties(Map<IVersionedId, Map<String, String>> unitProperties, IVersionedId unit) {
+		Map<String, String> properties = unitProperties.get(unit);
+		if (properties == null)
+			return Collections.emptyMap();
+		return properties;
+	}
+
+	private static void diff(Map<String, String> from, Map<String, String> to, Map<String, String> changes) {
+		for (Entry<String, String> entry : to.entrySet()) {
+			if (!entry.getValue().equals(from.get(entry.getKey())))
+				changes.put(entry.getKey(), entry.getValue());
+		}
+		for (String key : from.keySet()) {
+			if (!to.containsKey(key))
+				changes.put(key, null);
+		}
+	}
+}
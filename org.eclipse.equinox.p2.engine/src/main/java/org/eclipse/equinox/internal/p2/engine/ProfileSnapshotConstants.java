@@ -0,0 +1,55 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+/**
+ *	Constants defining the structure of a binary profile snapshot.
+ *	<p>
+ *	A snapshot holds the same content as the XML profile file it was derived from:
+ *	<pre>
+ *	int magic, int version, long timestamp, long source file length
+ *	int length, UTF-8 bytes                                - parent id
+ *	int string count, {int length, UTF-8 bytes}*           - string table
+ *	int profile id, property map                           - profile
+ *	int unit count, {int id, int version, byte kind,
+ *	    int offset, int length, int CRC-32, property map}* - unit index, sorted by id and version
+ *	int blocks length, {unit XML fragment}*                - unit blocks
+ *	</pre>
+ *	Strings are stored once in the string table and referenced by index. A property map
+ *	is an int count followed by pairs of key and value string indices, where
+ *	{@link #NO_STRING} stands for a <code>null</code> key or value. The kind of a unit
+ *	tells plain units from fragments and patches without decoding them, and the checksum
+ *	of its fragment allows to validate it without decoding it either. The parent id
+ *	precedes the string table so that it can be read without the rest of the snapshot,
+ *	its length is {@link #NO_PARENT} for root profiles. The property map of a profile
+ *	holds its local properties only.
+ */
+public interface ProfileSnapshotConstants {
+
+	// Identifies a binary profile snapshot ('P2PS')
+	public static final int SNAPSHOT_MAGIC = 0x50325053;
+
+	// A format version number for binary profile snapshots.
+	public static final int CURRENT_SNAPSHOT_VERSION = 4;
+
+	// The length of the parent id of a root profile.
+	public static final int NO_PARENT = -1;
+
+	// The string index of a null property key or value.
+	public static final int NO_STRING = -1;
+
+	// The kinds of installable units in the unit index.
+	public static final byte UNIT_KIND_PLAIN = 0;
+	public static final byte UNIT_KIND_FRAGMENT = 1;
+	public static final byte UNIT_KIND_PATCH = 2;
+
+	public static final String PROFILE_SNAPSHOT_EXT = ".profile.bin"; //$NON-NLS-1$
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataWriter;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.*;
+
+/**
+ * Writes a binary profile snapshot as described by {@link ProfileSnapshotConstants}.
+ * The installable units are stored as the same XML fragments the ProfileWriter
+ * produces, so that reading a snapshot yields exactly the units of the XML profile.
+ */
+public class ProfileSnapshotWriter implements ProfileSnapshotConstants {
+
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	/**
+	 * Renders single installable units as bare XML element fragments.
+	 */
+	static class UnitWriter extends MetadataWriter {
+		private final ByteArrayOutputStream buffer;
+
+		UnitWriter(ByteArrayOutputStream buffer) throws IOException {
+			super(buffer, new ProcessingInstruction[0]);
+			this.buffer = buffer;
+			// drop the XML declaration, it is added back when the fragments are parsed
+			flush();
+			buffer.reset();
+		}
+
+		byte[] writeUnit(IInstallableUnit iu) {
+			writeInstallableUnit(iu);
+			flush();
+			byte[] fragment = buffer.toByteArray();
+			buffer.reset();
+			return fragment;
+		}
+	}
+
+	private final DataOutputStream output;
+	private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+	public ProfileSnapshotWriter(OutputStream output) {
+		this.output = new DataOutputStream(output);
+	}
+
+	/**
+	 * Writes a snapshot of the given profile.
+	 * @param profile the profile to write
+	 * @param sourceLength the length of the XML profile file this snapshot is derived from
+	 */
+	public void writeProfile(IProfile profile, long sourceLength) throws IOException {
+		ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream();
+		DataOutputStream index = new DataOutputStream(indexBuffer);
+		ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		UnitWriter unitWriter = new UnitWriter(new ByteArrayOutputStream());
+		CRC32 checksum = new CRC32();
+
+		index.writeInt(intern(profile.getProfileId()));
+		// the properties inherited from the parent are restored from the parent itself
+		writeProperties(index, profile instanceof Profile ? ((Profile) profile).getLocalProperties() : profile.getProperties());
+
+		List<IInstallableUnit> ius = ProfileWriter.getSortedUnits(profile);
+		index.writeInt(ius.size());
+		for (IInstallableUnit iu : ius) {
+			byte[] fragment = unitWriter.writeUnit(iu);
+			index.writeInt(intern(iu.getId()));
+			index.writeInt(intern(iu.getVersion().toString()));
+			index.writeByte(getKind(iu));
+			index.writeInt(blocks.size());
+			index.writeInt(fragment.length);
+			checksum.reset();
+			checksum.update(fragment);
+			index.writeInt((int) checksum.getValue());
+			writeProperties(index, profile.getInstallableUnitProperties(iu));
+			blocks.write(fragment);
+		}
+		index.flush();
+
+		output.writeInt(SNAPSHOT_MAGIC);
+		output.writeInt(CURRENT_SNAPSHOT_VERSION);
+		output.writeLong(profile.getTimestamp());
+		output.writeLong(sourceLength);
+		IProfile parentProfile = profile.getParentProfile();
+		if (parentProfile == null) {
+			output.writeInt(NO_PARENT);
+		} else {
+			byte[] bytes = parentProfile.getProfileId().getBytes(UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+		output.writeInt(strings.size());
+		for (String string : strings.keySet()) {
+			byte[] bytes = string.getBytes(UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+		indexBuffer.writeTo(output);
+		output.writeInt(blocks.size());
+		blocks.writeTo(output);
+		output.flush();
+	}
+
+	private static byte getKind(IInstallableUnit iu) {
+		if (iu instanceof IInstallableUnitFragment)
+			return UNIT_KIND_FRAGMENT;
+		if (iu instanceof IInstallableUnitPatch)
+			return UNIT_KIND_PATCH;
+		return UNIT_KIND_PLAIN;
+	}
+
+	private void writeProperties(DataOutputStream out, Map<String, String> properties) throws IOException {
+		out.writeInt(properties.size());
+		for (Entry<String, String> entry : properties.entrySet()) {
+			out.writeInt(intern(entry.getKey()));
+			out.writeInt(intern(entry.getValue()));
+		}
+	}
+
+	private int intern(String string) {
+		if (string == null)
+			return NO_STRING;
+		Integer index = strings.get(string);
+		if (index == null) {
+			index = new Integer(strings.size());
+			strings.put(string, index);
+		}
+		return index.intValue();
+	}
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * The state properties of a profile, indexed by profile timestamp and by key.
+ * <p>
+ * The properties are stored in a properties file with keys of the form
+ * <code>timestamp.key</code>. New properties are appended to the file, so a
+ * key may occur more than once and the last occurrence wins, as it does when
+ * the file is loaded as properties. Removing properties and compacting the
+ * store rewrites the file.
+ */
+public class ProfileStateStore {
+
+	private final File file;
+	// the modification time and length of the file when it was last read or written
+	private long lastModified;
+	private long length;
+
+	// timestamp -> key -> value
+	private final Map<String, Map<String, String>> byTimestamp = new HashMap<String, Map<String, String>>();
+	// key -> timestamp -> value
+	private final Map<String, Map<String, String>> byKey = new HashMap<String, Map<String, String>>();
+	// number of entries in the file that were replaced by later entries
+	private int replacedEntries;
+
+	private ProfileStateStore(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads the state properties stored in the given file. The store is empty if the
+	 * file does not exist.
+	 */
+	public static ProfileStateStore read(File file) throws IOException {
+		ProfileStateStore store = new ProfileStateStore(file);
+		if (file.exists()) {
+			Properties properties = new Properties();
+			InputStream input = new BufferedInputStream(new FileInputStream(file));
+			try {
+				properties.load(input);
+			} finally {
+				input.close();
+			}
+			for (Entry<Object, Object> entry : properties.entrySet()) {
+				// property key format is timestamp.key
+				String key = (String) entry.getKey();
+				int index = key.indexOf('.');
+				if (index > 0 && index + 1 != key.length())
+					store.index(key.substring(0, index), key.substring(index + 1), (String) entry.getValue());
+			}
+		}
+		store.updateFileState();
+		return store;
+	}
+
+	/**
+	 * Returns whether the file was not changed since this store last read or wrote it.
+	 */
+	public synchronized boolean isCurrent() {
+		return file.lastModified() == lastModified && file.length() == length;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the number of state properties in this store.
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (Map<String, String> properties : byTimestamp.values())
+			size += properties.size();
+		return size;
+	}
+
+	/**
+	 * Returns the properties of the given profile timestamp, by key.
+	 */
+	public synchronized Map<String, String> getProperties(long timestamp) {
+		Map<String, String> properties = byTimestamp.get(String.valueOf(timestamp));
+		if (properties == null)
+			return new HashMap<String, String>();
+		return new HashMap<String, String>(properties);
+	}
+
+	/**
+	 * Returns the values of the given key, by profile timestamp.
+	 */
+	public synchronized Map<String, String> getValues(String key) {
+		Map<String, String> values = byKey.get(key);
+		if (values == null)
+			return new HashMap<String, String>();
+		return new HashMap<String, String>(values);
+	}
+
+	/**
+	 * Adds the given properties for the given profile timestamp and appends them to the file.
+	 */
+	public synchronized void put(long timestamp, Map<String, String> properties) throws IOException {
+		String timestampString = String.valueOf(timestamp);
+		Properties appended = new Properties();
+		for (Entry<String, String> entry : properties.entrySet())
+			appended.put(timestampString + '.' + entry.getKey(), entry.getValue());
+
+		if (!file.exists()) {
+			for (Entry<String, String> entry : properties.entrySet())
+				index(timestampString, entry.getKey(), entry.getValue());
+			write();
+			return;
+		}
+		if (!isCurrent())
+			// changed by someone else, so it cannot be appended to
+			throw new IOException(file.getAbsolutePath());
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(file, true));
+		try {
+			appended.store(output, null);
+		} finally {
+			output.close();
+		}
+		for (Entry<String, String> entry : properties.entrySet())
+			index(timestampString, entry.getKey(), entry.getValue());
+		updateFileState();
+	}
+
+	/**
+	 * Removes the given keys, or all keys if <code>null</code>, of the given profile timestamp.
+	 * The file is not written. Returns whether any property was removed.
+	 */
+	public synchronized boolean remove(long timestamp, Collection<String> keys) {
+		return remove(String.valueOf(timestamp), keys);
+	}
+
+	private boolean remove(String timestampString, Collection<String> keys) {
+		Map<String, String> properties = byTimestamp.get(timestampString);
+		if (properties == null)
+			return false;
+		Collection<String> removed = keys == null ? new ArrayList<String>(properties.keySet()) : keys;
+		boolean changed = false;
+		for (String key : removed) {
+			if (key == null || properties.remove(key) == null)
+				continue;
+			changed = true;
+			Map<String, String> values = byKey.get(key);
+			values.remove(timestampString);
+			if (values.isEmpty())
+				byKey.remove(key);
+		}
+		if (properties.isEmpty())
+			byTimestamp.remove(timestampString);
+		return changed;
+	}
+
+	/**
+	 * Removes the properties of all profile timestamps but the given ones. The file is not
+	 * written. Returns whether any property was removed.
+	 */
+	public synchronized boolean prune(long[] timestamps) {
+		Set<String> existing = new HashSet<String>(timestamps.length);
+		for (int i = 0; i < timestamps.length; i++)
+			existing.add(String.valueOf(timestamps[i]));
+
+		boolean changed = false;
+		for (String timestamp : new ArrayList<String>(byTimestamp.keySet())) {
+			if (!existing.contains(timestamp))
+				changed |= remove(timestamp, null);
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns whether the file holds entries that were replaced by later entries.
+	 */
+	public synchronized boolean needsCompaction() {
+		return replacedEntries > 0;
+	}
+
+	/**
+	 * Rewrites the file with the current properties of this store.
+	 */
+	public synchronized void write() throws IOException {
+		Properties properties = new Properties();
+		for (Entry<String, Map<String, String>> timestampEntry : byTimestamp.entrySet()) {
+			for (Entry<String, String> entry : timestampEntry.getValue().entrySet())
+				properties.put(timestampEntry.getKey() + '.' + entry.getKey(), entry.getValue());
+		}
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			properties.store(output, null);
+		} finally {
+			output.close();
+		}
+		replacedEntries = 0;
+		updateFileState();
+	}
+
+	private void index(String timestamp, String key, String value) {
+		Map<String, String> properties = byTimestamp.get(timestamp);
+		if (properties == null) {
+			properties = new HashMap<String, String>();
+			byTimestamp.put(timestamp, properties);
+		}
+		if (properties.put(key, value) != null)
+			replacedEntries++;
+
+		Map<String, String> values = byKey.get(key);
+		if (values == null) {
+			values = new HashMap<String, String>();
+			byKey.put(key, values);
+		}
+		values.put(timestamp, value);
+	}
+
+	private void updateFileState() {
+		lastModified = file.lastModified();
+		length = file.length();
+	}
+}
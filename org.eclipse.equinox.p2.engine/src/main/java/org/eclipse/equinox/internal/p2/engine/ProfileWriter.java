@@ -25,21 +25,34 @@ public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants
 		super(output, processingInstructions);
 	}
 
+	/**
+	 * The order in which installable units are written: by id, then by version.
+	 */
+	static final Comparator<IInstallableUnit> UNIT_ORDER = new Comparator<IInstallableUnit>() {
+		public int compare(IInstallableUnit iu1, IInstallableUnit iu2) {
+			int IdCompare = iu1.getId().compareTo(iu2.getId());
+			if (IdCompare != 0)
+				return IdCompare;
+
+			return iu1.getVersion().compareTo(iu2.getVersion());
+		}
+	};
+
+	/**
+	 * Returns the installable units of the given profile in the order they are written.
+	 */
+	static List<IInstallableUnit> getSortedUnits(IProfile profile) {
+		ArrayList<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+		Collections.sort(ius, UNIT_ORDER);
+		return ius;
+	}
+
 	public void writeProfile(IProfile profile) {
 		start(PROFILE_ELEMENT);
 		attribute(ID_ATTRIBUTE, profile.getProfileId());
 		attribute(TIMESTAMP_ATTRIBUTE, Long.toString(profile.getTimestamp()));
 		writeProperties(profile.getProperties());
-		ArrayList<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
-		Collections.sort(ius, new Comparator<IInstallableUnit>() {
-			public int compare(IInstallableUnit iu1, IInstallableUnit iu2) {
-				int IdCompare = iu1.getId().compareTo(iu2.getId());
-				if (IdCompare != 0)
-					return IdCompare;
-
-				return iu1.getVersion().compareTo(iu2.getVersion());
-			}
-		});
+		List<IInstallableUnit> ius = getSortedUnits(profile);
 		writeInstallableUnits(ius.iterator(), ius.size());
 		writeInstallableUnitsProperties(ius.iterator(), ius.size(), profile);
 		end(PROFILE_ELEMENT);
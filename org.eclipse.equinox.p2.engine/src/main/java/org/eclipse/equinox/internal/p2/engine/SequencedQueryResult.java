@@ -0,0 +1,115 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.equinox.p2.query.*;
+
+/**
+ * A query result that holds the results of a first query followed by the results of the
+ * same query against a second queryable, without duplicates. The second query is only
+ * performed once the first results have been consumed, so callers that stop early or only
+ * test whether the result is empty do not pay for collecting both results.
+ */
+public class SequencedQueryResult<T> implements IQueryResult<T> {
+
+	private final IQueryResult<T> first;
+	private final IQueryable<T> secondSource;
+	private final IQuery<T> query;
+	private final IProgressMonitor monitor;
+	private IQueryResult<T> second;
+
+	public SequencedQueryResult(IQueryResult<T> first, IQueryable<T> secondSource, IQuery<T> query, IProgressMonitor monitor) {
+		this.first = first;
+		this.secondSource = secondSource;
+		this.query = query;
+		this.monitor = monitor;
+	}
+
+	synchronized IQueryResult<T> getSecond() {
+		if (second == null)
+			second = secondSource.query(query, monitor);
+		return second;
+	}
+
+	public boolean isEmpty() {
+		return first.isEmpty() && getSecond().isEmpty();
+	}
+
+	public Iterator<T> iterator() {
+		return new SequencedIterator();
+	}
+
+	public T[] toArray(Class<T> clazz) {
+		Set<T> elements = toSet();
+		@SuppressWarnings("unchecked")
+		T[] result = (T[]) Array.newInstance(clazz, elements.size());
+		return elements.toArray(result);
+	}
+
+	public Set<T> toSet() {
+		Set<T> result = new HashSet<T>(first.toUnmodifiableSet());
+		result.addAll(getSecond().toUnmodifiableSet());
+		return result;
+	}
+
+	public Set<T> toUnmodifiableSet() {
+		return Collections.unmodifiableSet(toSet());
+	}
+
+	public IQueryResult<T> query(IQuery<T> q, IProgressMonitor progress) {
+		return q.perform(iterator());
+	}
+
+	/**
+	 * Iterates over the first results, then over the second results that are not
+	 * among the first ones.
+	 */
+	private class SequencedIterator implements Iterator<T> {
+		private final Set<T> seen = new HashSet<T>();
+		private Iterator<T> current = first.iterator();
+		private boolean inFirst = true;
+		private T next;
+
+		public boolean hasNext() {
+			while (next == null) {
+				if (current.hasNext()) {
+					T element = current.next();
+					if (inFirst)
+						seen.add(element);
+					else if (seen.contains(element))
+						continue;
+					next = element;
+				} else if (inFirst) {
+					inFirst = false;
+					current = getSecond().iterator();
+				} else {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			T element = next;
+			next = null;
+			return element;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -11,10 +11,10 @@
 package org.eclipse.equinox.internal.p2.engine;
 
 import java.io.*;
-import java.lang.ref.SoftReference;
 import java.net.URI;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import javax.xml.parsers.ParserConfigurationException;
@@ -27,24 +27,36 @@ import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.core.spi.IAgentService;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.metadata.*;
-import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.osgi.service.datalocation.Location;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 	private static final String SIMPLE_PROFILE_REGISTRY_INTERNAL = "_simpleProfileRegistry_internal_"; //$NON-NLS-1$
 	private static final String PROFILE_REGISTRY = "profile registry"; //$NON-NLS-1$
 	private static final String PROFILE_PROPERTIES_FILE = "state.properties"; //$NON-NLS-1$
+	public static final Object STATE_COMPACTION_JOB_FAMILY = new Object();
+	private static final long STATE_COMPACTION_DELAY = 1000;
+	public static final Object PROFILE_RETENTION_JOB_FAMILY = new Object();
+	private static final long PROFILE_RETENTION_DELAY = 5000;
+	private static final int DEFAULT_STATE_CACHE_SIZE = 8;
+	private static final int DEFAULT_HISTORY_CACHE_SIZE = 8;
+	private static final int DEFAULT_HISTORY_CACHE_WEIGHT = 50000;
 
 	private static final String PROFILE_EXT = ".profile"; //$NON-NLS-1$
-	private static final String PROFILE_GZ_EXT = ".profile.gz"; //$NON-NLS-1$
+	static final String PROFILE_GZ_EXT = ".profile.gz"; //$NON-NLS-1$
+	// the directory holding the units that surrogate profiles take from shared profiles
+	private static final String SURROGATE_BASE_DIR = ".surrogateBase"; //$NON-NLS-1$
 	public static final String DEFAULT_STORAGE_DIR = "profileRegistry"; //$NON-NLS-1$
+	// the coarsest modification time resolution of the supported file systems, in milliseconds
+	private static final long MODIFICATION_TIME_GRANULARITY = 2000;
 	private static final String DATA_EXT = ".data"; //$NON-NLS-1$
 
 	//Internal constant used to keep track of the newly created timestamp
@@ -53,10 +65,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	protected final IProvisioningAgent agent;
 
 	/**
-	 * Reference to Map of String(Profile id)->Profile. 
+	 * Map of String(Profile id)->Profile, backed by the profile cache.
 	 */
-	private SoftReference<Map<String, Profile>> profiles;
+	private Map<String, Profile> profiles;
+	private final ProfileCache<String, Profile> profileCache;
 	private Map<String, ProfileLock> profileLocks = new HashMap<String, ProfileLock>();
+	private Map<String, ProfileJournal> journals = new HashMap<String, ProfileJournal>();
+	// profile id -> timestamps of the profile files in the profile directory
+	private Map<String, TimestampIndexEntry> timestampIndex = new HashMap<String, TimestampIndexEntry>();
 
 	private String self;
 
@@ -68,8 +84,21 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	ISurrogateProfileHandler surrogateProfileHandler;
 
 	private IProvisioningEventBus eventBus;
-	// cache of last accessed profile state properties
-	private ProfileStateProperties lastAccessedProperties;
+	// cache of the state properties of recently accessed profiles
+	private final ProfileCache<String, ProfileStateStore> stateCache;
+	// parsed historical revisions, which never change once written
+	private final ProfileCache<RevisionKey, Profile> historyCache;
+	private final ProfileMaintenanceJob stateCompactionJob = new ProfileMaintenanceJob(Messages.SimpleProfileRegistry_States_Compacting, STATE_COMPACTION_JOB_FAMILY) {
+		protected void maintain(String id) {
+			compactStateProperties(id);
+		}
+	};
+	private final ProfileRetentionPolicy retentionPolicy = new ProfileRetentionPolicy(getIntProperty(EngineActivator.PROP_PROFILE_RETENTION_COUNT), getIntProperty(EngineActivator.PROP_PROFILE_RETENTION_AGE), EngineActivator.getProperty(EngineActivator.PROP_PROFILE_RETENTION_TAG));
+	private final ProfileMaintenanceJob retentionJob = new ProfileMaintenanceJob(Messages.SimpleProfileRegistry_Removing_Expired_Revisions, PROFILE_RETENTION_JOB_FAMILY) {
+		protected void maintain(String id) {
+			removeExpiredProfiles(id);
+		}
+	};
 
 	public SimpleProfileRegistry(IProvisioningAgent agent, File registryDirectory) {
 		this(agent, registryDirectory, new SurrogateProfileHandler(agent), true);
@@ -80,10 +109,119 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		store = registryDirectory;
 		surrogateProfileHandler = handler;
 		Assert.isNotNull(store, "Profile registry requires a directory"); //$NON-NLS-1$
+		profileCache = createProfileCache();
+		stateCache = createStateCache();
+		historyCache = createHistoryCache();
 		findSelf();
 		this.updateSelfProfile = updateSelfProfile;
 	}
 
+	/**
+	 * Creates the cache of loaded profiles. Profiles locked by this process and
+	 * profiles with sub-profiles are never evicted.
+	 */
+	private ProfileCache<String, Profile> createProfileCache() {
+		return new ProfileCache<String, Profile>(PROFILE_REGISTRY, getIntProperty(EngineActivator.PROP_PROFILE_CACHE_SIZE), getIntProperty(EngineActivator.PROP_PROFILE_CACHE_WEIGHT), new ProfileCache.IEvictionPolicy<String, Profile>() {
+			public int getWeight(String id, Profile profile) {
+				return 1 + profile.getInstallableUnitCount();
+			}
+
+			public boolean isEvictable(String id, Profile profile) {
+				ProfileLock lock = profileLocks.get(id);
+				return (lock == null || !lock.processHoldsLock()) && !profile.hasSubProfiles();
+			}
+		});
+	}
+
+	/**
+	 * Creates the cache of profile state properties. Cached state properties are
+	 * validated against the modification time and length of their file on each access.
+	 */
+	private ProfileCache<String, ProfileStateStore> createStateCache() {
+		return new ProfileCache<String, ProfileStateStore>(PROFILE_PROPERTIES_FILE, getIntProperty(EngineActivator.PROP_PROFILE_STATE_CACHE_SIZE, DEFAULT_STATE_CACHE_SIZE), 0, new ProfileCache.IEvictionPolicy<String, ProfileStateStore>() {
+			public int getWeight(String id, ProfileStateStore properties) {
+				return 1;
+			}
+
+			public boolean isEvictable(String id, ProfileStateStore properties) {
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Creates the cache of parsed historical revisions, weighted by their number of
+	 * installable units.
+	 */
+	private ProfileCache<RevisionKey, Profile> createHistoryCache() {
+		return new ProfileCache<RevisionKey, Profile>("profile history", getIntProperty(EngineActivator.PROP_PROFILE_HISTORY_CACHE_SIZE, DEFAULT_HISTORY_CACHE_SIZE), getIntProperty(EngineActivator.PROP_PROFILE_HISTORY_CACHE_WEIGHT, DEFAULT_HISTORY_CACHE_WEIGHT), new ProfileCache.IEvictionPolicy<RevisionKey, Profile>() { //$NON-NLS-1$
+			public int getWeight(RevisionKey key, Profile profile) {
+				return 1 + profile.getInstallableUnitCount();
+			}
+
+			public boolean isEvictable(RevisionKey key, Profile profile) {
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Identifies a revision of a profile.
+	 */
+	private static final class RevisionKey {
+		final String id;
+		final long timestamp;
+
+		RevisionKey(String id, long timestamp) {
+			this.id = id;
+			this.timestamp = timestamp;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RevisionKey))
+				return false;
+			RevisionKey other = (RevisionKey) obj;
+			return timestamp == other.timestamp && id.equals(other.id);
+		}
+
+		public int hashCode() {
+			return 31 * id.hashCode() + (int) (timestamp ^ (timestamp >>> 32));
+		}
+
+		public String toString() {
+			return id + '@' + timestamp;
+		}
+	}
+
+	private static int getIntProperty(String key) {
+		return getIntProperty(key, 0);
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		String value = EngineActivator.getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Math.max(0, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the cache of loaded profiles.
+	 */
+	ProfileCache<String, Profile> getProfileCache() {
+		return profileCache;
+	}
+
+	/**
+	 * Returns the cache of profile state properties.
+	 */
+	ProfileCache<String, ProfileStateStore> getStateCache() {
+		return stateCache;
+	}
+
 	/**
 	 * Determine the id of the "self" profile. This is only applicable for the registry
 	 * of the currently running system.
@@ -178,7 +316,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	public synchronized String toString() {
-		return "Profile registry for location: " + store.getAbsolutePath() + "\n" + getProfileMap().toString(); //$NON-NLS-1$ //$NON-NLS-2$
+		return "Profile registry for location: " + store.getAbsolutePath() + "\n" + getProfileMap().toString() + "\n" + profileCache + "\n" + stateCache + "\n" + historyCache; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
 	}
 
 	public synchronized IProfile getProfile(String id) {
@@ -202,22 +340,210 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (!profileDirectory.isDirectory())
 			return null;
 
+		RevisionKey key = new RevisionKey(id, timestamp);
+		Profile cached = historyCache.get(key);
+		if (cached != null)
+			return cached.snapshot();
+
+		File profileFile = getProfileFile(profileDirectory, timestamp);
+		if (profileFile == null && !getJournal(id).contains(timestamp))
+			return null;
+
+		long start = System.nanoTime();
+		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		try {
+			if (profileFile != null)
+				parser.parse(profileFile);
+			else
+				parser.parseJournal(id, profileDirectory, timestamp);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile != null ? profileFile : new File(profileDirectory, ProfileJournal.JOURNAL_FILE)), e));
+			return parser.getProfileMap().get(id);
+		}
+		Profile profile = parser.getProfileMap().get(id);
+		if (profile == null)
+			return null;
+		// callers get snapshots, which share the units of the cached revision until modified
+		historyCache.loaded(System.nanoTime() - start);
+		historyCache.put(key, profile);
+		return profile.snapshot();
+	}
+
+	public synchronized IProfileDelta getProfileDelta(String id, long fromTimestamp, long toTimestamp) {
+		if (SELF.equals(id))
+			id = self;
+
+		File profileDirectory = getProfileFolder(id);
+		if (!profileDirectory.isDirectory())
+			return null;
+		ProfileRevision from = getProfileRevision(id, profileDirectory, fromTimestamp);
+		if (from == null)
+			return null;
+		ProfileRevision to = getProfileRevision(id, profileDirectory, toTimestamp);
+		if (to == null)
+			return null;
+		return from.compareTo(to, id, fromTimestamp, toTimestamp);
+	}
+
+	/*
+	 * Reads the unit identities and properties of a revision from its binary snapshot or its
+	 * profile file. Revisions that only exist in the journal are restored as profiles.
+	 */
+	private ProfileRevision getProfileRevision(String id, File profileDirectory, long timestamp) {
+		File profileFile = getProfileFile(profileDirectory, timestamp);
+		if (profileFile == null) {
+			if (!getJournal(id).contains(timestamp))
+				return null;
+			IProfile profile = getProfile(id, timestamp);
+			return profile == null ? null : ProfileRevision.fromProfile(profile);
+		}
+
+		try {
+			File snapshotFile = getSnapshotFile(profileFile);
+			if (snapshotFile.isFile() && snapshotFile.lastModified() >= profileFile.lastModified()) {
+				ProfileRevision revision = ProfileRevision.readSnapshot(snapshotFile, profileFile, timestamp);
+				if (revision != null)
+					return revision;
+			}
+			return ProfileRevision.readProfile(profileFile);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+			return null;
+		}
+	}
+
+	/*
+	 * Drops the cached historical revisions of the given profile.
+	 */
+	private void removeHistory(String id) {
+		for (RevisionKey key : historyCache.keys()) {
+			if (key.id.equals(id))
+				historyCache.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the profile file of the given revision, or <code>null</code> if the revision
+	 * was not saved as a full profile file.
+	 */
+	private File getProfileFile(File profileDirectory, long timestamp) {
 		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
 		if (!profileFile.exists()) {
 			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
 			if (!profileFile.exists())
 				return null;
 		}
+		return profileFile;
+	}
 
+	/**
+	 * Reads the units that surrogate profiles of the given revision of a shared profile
+	 * start with, as written by {@link #writeSurrogateBase(Profile)}. Returns <code>null</code>
+	 * if they were not written or cannot be read. This method does not lock the registry.
+	 */
+	Profile readSurrogateBase(String id, long timestamp) {
+		File baseFile = new File(new File(new File(store, SURROGATE_BASE_DIR), escape(id)), Long.toString(timestamp) + PROFILE_GZ_EXT);
+		if (!baseFile.isFile())
+			return null;
 		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
 		try {
-			parser.parse(profileFile);
+			parser.parse(baseFile);
 		} catch (IOException e) {
-			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(PROFILE_REGISTRY, "Unable to read surrogate base: " + baseFile.getAbsolutePath() + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
 		}
 		return parser.getProfileMap().get(id);
 	}
 
+	/**
+	 * Writes the units that surrogate profiles of a revision of a shared profile start with,
+	 * so that they are computed once for all the users of a shared install. The base profile
+	 * has the id and the timestamp of the shared profile. Earlier revisions are removed. Failing
+	 * to write, for instance because the shared install is read-only, is not an error.
+	 * This method does not lock the registry.
+	 */
+	void writeSurrogateBase(Profile base) {
+		File baseDirectory = new File(new File(store, SURROGATE_BASE_DIR), escape(base.getProfileId()));
+		if (!baseDirectory.isDirectory() && !baseDirectory.mkdirs())
+			return;
+		File baseFile = new File(baseDirectory, Long.toString(base.getTimestamp()) + PROFILE_GZ_EXT);
+		OutputStream os = null;
+		File tempFile = null;
+		try {
+			// written to a temporary file first, as other users may read the base at the same time
+			tempFile = File.createTempFile(Long.toString(base.getTimestamp()), null, baseDirectory);
+			os = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile)));
+			new Writer(os).writeProfile(base);
+			os.close();
+			os = null;
+			if (!tempFile.renameTo(baseFile))
+				return;
+			tempFile = null;
+		} catch (IOException e) {
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(PROFILE_REGISTRY, "Unable to write surrogate base: " + baseFile.getAbsolutePath() + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return;
+		} finally {
+			if (os != null)
+				try {
+					os.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			if (tempFile != null)
+				tempFile.delete();
+		}
+
+		File[] files = baseDirectory.listFiles();
+		if (files == null)
+			return;
+		for (int i = 0; i < files.length; i++) {
+			if (!files[i].equals(baseFile))
+				files[i].delete();
+		}
+	}
+
+	/**
+	 * Returns the journal of the profile with the given id.
+	 */
+	private ProfileJournal getJournal(String id) {
+		ProfileJournal journal = journals.get(id);
+		if (journal == null) {
+			journal = new ProfileJournal(getProfileFolder(id));
+			journals.put(id, journal);
+		}
+		return journal;
+	}
+
+	/*
+	 * Rewrites the journal of the given profile without the records of deleted revisions.
+	 */
+	private void compactJournal(String id) {
+		ProfileJournal journal = getJournal(id);
+		try {
+			if (journal.needsCompaction())
+				journal.compact();
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, id), e));
+		}
+	}
+
+	/**
+	 * Returns the number of revisions between full profile files, or 0 if journaling is disabled.
+	 */
+	private int getJournalCheckpointInterval() {
+		String interval = EngineActivator.getProperty(EngineActivator.PROP_PROFILE_JOURNAL_CHECKPOINT);
+		if (interval == null)
+			return 0;
+		try {
+			int result = Integer.parseInt(interval);
+			return result < 2 ? 0 : result;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
 	public synchronized long[] listProfileTimestamps(String id) {
 		if (SELF.equals(id))
 			id = self;
@@ -226,9 +552,76 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			return new long[0];
 
 		File profileDirectory = getProfileFolder(id);
-		if (!profileDirectory.isDirectory())
+		long[] timestamps = getProfileFileTimestamps(id, profileDirectory);
+		if (timestamps == null)
 			return new long[0];
 
+		long[] journalTimestamps = getJournal(id).getTimestamps();
+		if (journalTimestamps.length != 0) {
+			long[] all = new long[timestamps.length + journalTimestamps.length];
+			System.arraycopy(timestamps, 0, all, 0, timestamps.length);
+			System.arraycopy(journalTimestamps, 0, all, timestamps.length, journalTimestamps.length);
+			Arrays.sort(all);
+			// a revision may be in both if a journal revision was saved as a full file
+			int size = 0;
+			for (int i = 0; i < all.length; i++) {
+				if (size == 0 || all[size - 1] != all[i])
+					all[size++] = all[i];
+			}
+			timestamps = new long[size];
+			System.arraycopy(all, 0, timestamps, 0, size);
+			return timestamps;
+		}
+		return timestamps.clone();
+	}
+
+	/**
+	 * The sorted timestamps of the profile files in a profile directory. The timestamps
+	 * are valid as long as the modification time of the directory does not change.
+	 */
+	private static class TimestampIndexEntry {
+		final long[] timestamps;
+		final long directoryModified;
+		final long indexed;
+		// whether the timestamps were updated by this registry rather than listed
+		final boolean written;
+
+		TimestampIndexEntry(long[] timestamps, long directoryModified, long indexed, boolean written) {
+			this.timestamps = timestamps;
+			this.directoryModified = directoryModified;
+			this.indexed = indexed;
+			this.written = written;
+		}
+
+		boolean isCurrent(long modified, long now) {
+			if (modified != directoryModified)
+				return false;
+			// a change made within the granularity of the modification time after the
+			// directory was listed or written may not have changed the modification time
+			if (indexed - directoryModified > MODIFICATION_TIME_GRANULARITY)
+				return true;
+			// the changes of this registry are used until the directory can be listed again,
+			// since another process may have changed it within the same modification time
+			return written && now - directoryModified <= MODIFICATION_TIME_GRANULARITY;
+		}
+	}
+
+	/**
+	 * Returns the sorted timestamps of the profile files of the given profile, or
+	 * <code>null</code> if the profile directory does not exist. The directory is
+	 * only listed if it was modified since it was last indexed.
+	 */
+	private long[] getProfileFileTimestamps(String id, File profileDirectory) {
+		long modified = profileDirectory.lastModified();
+		if (modified == 0 || !profileDirectory.isDirectory()) {
+			timestampIndex.remove(id);
+			return null;
+		}
+		long indexed = System.currentTimeMillis();
+		TimestampIndexEntry entry = timestampIndex.get(id);
+		if (entry != null && entry.isCurrent(modified, indexed))
+			return entry.timestamps;
+
 		File[] profileFiles = profileDirectory.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
 				return (pathname.getName().endsWith(PROFILE_EXT) || pathname.getName().endsWith(PROFILE_GZ_EXT)) && pathname.isFile() && !pathname.getName().startsWith("._"); //$NON-NLS-1$
@@ -246,9 +639,40 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			}
 		}
 		Arrays.sort(timestamps);
+		timestampIndex.put(id, new TimestampIndexEntry(timestamps, modified, indexed, false));
 		return timestamps;
 	}
 
+	/**
+	 * Updates the timestamp index after this registry added or removed a profile file.
+	 * The index is dropped if the directory was changed by someone else since it was indexed.
+	 * The updated entry is used until the directory is listed again once the granularity
+	 * of its modification time has passed.
+	 */
+	private void updateTimestampIndex(String id, File profileDirectory, long previousModified, long timestamp, boolean added) {
+		TimestampIndexEntry entry = timestampIndex.remove(id);
+		if (entry == null || entry.directoryModified != previousModified)
+			return;
+
+		long[] timestamps = entry.timestamps;
+		int index = Arrays.binarySearch(timestamps, timestamp);
+		long[] updated;
+		if (added && index < 0) {
+			index = -index - 1;
+			updated = new long[timestamps.length + 1];
+			System.arraycopy(timestamps, 0, updated, 0, index);
+			updated[index] = timestamp;
+			System.arraycopy(timestamps, index, updated, index + 1, timestamps.length - index);
+		} else if (!added && index >= 0) {
+			updated = new long[timestamps.length - 1];
+			System.arraycopy(timestamps, 0, updated, 0, index);
+			System.arraycopy(timestamps, index + 1, updated, index, timestamps.length - index - 1);
+		} else {
+			updated = timestamps;
+		}
+		timestampIndex.put(id, new TimestampIndexEntry(updated, profileDirectory.lastModified(), System.currentTimeMillis(), true));
+	}
+
 	private Profile internalGetProfile(String id) {
 		if (SELF.equals(id))
 			id = self;
@@ -337,15 +761,16 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	 * Returns an initialized map of String(Profile id)->Profile. 
 	 */
 	protected Map<String, Profile> getProfileMap() {
-		if (profiles != null) {
-			Map<String, Profile> result = profiles.get();
-			if (result != null)
-				return result;
-		}
-		Map<String, Profile> result = restore();
-		if (result == null)
-			result = new LinkedHashMap<String, Profile>(8);
-		profiles = new SoftReference<Map<String, Profile>>(result);
+		if (profiles != null)
+			return profiles;
+		Map<String, Profile> result;
+		if (Boolean.valueOf(EngineActivator.getProperty(EngineActivator.PROP_PROFILE_LAZY_LOAD)).booleanValue()) {
+			result = new CachedProfileMap();
+		} else {
+			Map<String, Profile> restored = restore();
+			result = new CachedProfileMap(restored != null ? restored : new HashMap<String, Profile>());
+		}
+		profiles = result;
 		if (updateSelfProfile) {
 			//update self profile on first load
 			updateSelfProfile(result);
@@ -362,19 +787,24 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		ProfileLock lock = profileLocks.get(id);
 		lock.checkLocked();
 
-		current.clearLocalProperties();
-		current.clearInstallableUnits();
-
-		current.addProperties(profile.getLocalProperties());
-		IQueryResult<IInstallableUnit> queryResult = profile.query(QueryUtil.createIUAnyQuery(), null);
-		for (Iterator<IInstallableUnit> queryResultIt = queryResult.iterator(); queryResultIt.hasNext();) {
-			IInstallableUnit iu = queryResultIt.next();
-			current.addInstallableUnit(iu);
-			Map<String, String> iuProperties = profile.getInstallableUnitProperties(iu);
-			if (iuProperties != null)
-				current.addInstallableUnitProperties(iu, iuProperties);
+		// only apply what changed, the same differences are journaled
+		ProfileDiff diff = ProfileDiff.compute(current, profile);
+		if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+			DebugHelper.debug(PROFILE_REGISTRY, "Updating profile " + id + ": " + diff); //$NON-NLS-1$ //$NON-NLS-2$
+		ProfileJournal.Delta delta = null;
+		int checkpointInterval = getJournalCheckpointInterval();
+		if (checkpointInterval != 0 && current.getTimestamp() != 0 && getJournal(id).getDepth(current.getTimestamp()) + 1 < checkpointInterval) {
+			try {
+				delta = ProfileJournal.Delta.compute(diff);
+			} catch (IOException e) {
+				// save a full profile file instead
+			}
 		}
-		saveProfile(current);
+
+		diff.applyTo(current);
+		saveProfile(current, delta);
+		// the weight of the profile may have changed
+		profileCache.put(id, current);
 		profile.clearOrphanedInstallableUnitProperties();
 		profile.setTimestamp(current.getTimestamp());
 		broadcastChangeEvent(id, IProfileEvent.CHANGED);
@@ -422,7 +852,8 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (profile == null)
 			return;
 
-		List<String> subProfileIds = profile.getSubProfileIds();
+		// removing a sub-profile removes it from the sub-profiles of this profile
+		List<String> subProfileIds = new ArrayList<String>(profile.getSubProfileIds());
 		for (int i = 0; i < subProfileIds.size(); i++) {
 			removeProfile(subProfileIds.get(i));
 		}
@@ -440,92 +871,451 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		}
 		profileMap.remove(profileId);
 		profileLocks.remove(profileId);
+		journals.remove(profileId);
+		timestampIndex.remove(profileId);
+		stateCache.remove(profileId);
+		removeHistory(profileId);
 		// deleting the profile removes the folder and subsequently all
 		// the profile state properties as well since they are stored in a file in the folder.
 		deleteProfile(profileId);
 		broadcastChangeEvent(profileId, IProfileEvent.REMOVED);
 	}
 
-	public synchronized void removeProfile(String id, long timestamp) throws ProvisionException {
-		if (SELF.equals(id))
-			id = self;
+	public synchronized void removeProfile(String id, long timestamp) throws ProvisionException {
+		if (SELF.equals(id))
+			id = self;
+
+		if (profiles != null) {
+			IProfile profile = getProfile(id);
+			if (profile != null && profile.getTimestamp() == timestamp)
+				throw new ProvisionException(Messages.SimpleProfileRegistry_CannotRemoveCurrentSnapshot);
+		}
+
+		File profileDirectory = getProfileFolder(id);
+		if (!profileDirectory.isDirectory())
+			return;
+
+		if (!deleteProfileRevision(id, profileDirectory, timestamp))
+			return;
+		// Ignore the return value here. If there was a problem removing the profile state
+		// properties we don't want to fail the whole operation since the profile state itself 
+		// was removed successfully
+		removeProfileStateProperties(id, timestamp, null);
+	}
+
+	/**
+	 * Deletes the revision of the given profile with the given timestamp, leaving its
+	 * state properties in place. Returns whether the revision existed.
+	 */
+	private boolean deleteProfileRevision(String id, File profileDirectory, long timestamp) throws ProvisionException {
+		historyCache.remove(new RevisionKey(id, timestamp));
+		File profileFile = getProfileFile(profileDirectory, timestamp);
+		ProfileJournal journal = getJournal(id);
+		if (profileFile == null && !journal.contains(timestamp))
+			return false;
+
+		// revisions in the journal that are derived from this one can no longer be
+		// replayed once it is gone, so save them as full profile files first
+		long[] dependents = journal.getDependents(timestamp);
+		try {
+			for (int i = 0; i < dependents.length; i++) {
+				Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+				parser.parseJournal(id, profileDirectory, dependents[i]);
+				Profile dependent = parser.getProfileMap().get(id);
+				writeProfileFile(dependent, profileDirectory);
+				journal.remove(dependents[i]);
+				journal.checkpoint(dependents[i], dependent.getLocalProperties());
+			}
+			journal.remove(timestamp);
+		} catch (IOException e) {
+			throw new ProvisionException(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, id), e));
+		}
+
+		if (profileFile != null) {
+			long directoryModified = profileDirectory.lastModified();
+			FileUtils.deleteAll(profileFile);
+			getSnapshotFile(profileFile).delete();
+			updateTimestampIndex(id, profileDirectory, directoryModified, timestamp, false);
+		}
+		return true;
+	}
+
+	/*
+	 * Schedules the removal of the revisions of the given profile that the retention policy does not keep.
+	 */
+	private void scheduleRetention(String id) {
+		if (!retentionPolicy.isEnabled())
+			return;
+		retentionJob.add(id);
+		retentionJob.schedule(PROFILE_RETENTION_DELAY);
+	}
+
+	/*
+	 * Removes the revisions of the given profile that the retention policy does not keep,
+	 * and the state properties of the removed revisions in the same pass.
+	 */
+	synchronized void removeExpiredProfiles(String id) {
+		File profileDirectory = getProfileFolder(id);
+		if (!profileDirectory.isDirectory())
+			return;
+		// in use, enforced when next saved
+		if (!internalTryLockProfile(id))
+			return;
+		try {
+			long[] timestamps = listProfileTimestamps(id);
+			if (timestamps.length <= 1)
+				return;
+			long current = timestamps[0];
+			for (int i = 1; i < timestamps.length; i++)
+				current = Math.max(current, timestamps[i]);
+			Profile loaded = profileCache.get(id);
+			if (loaded != null)
+				current = loaded.getTimestamp();
+
+			ProfileStateStore properties = readStateProperties(id);
+			Set<String> tagged = retentionPolicy.getTag() == null ? Collections.<String> emptySet() : properties.getValues(retentionPolicy.getTag()).keySet();
+			long[] expired = retentionPolicy.getExpired(timestamps, current, tagged, System.currentTimeMillis());
+			if (expired.length == 0)
+				return;
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(PROFILE_REGISTRY, "Removing " + expired.length + " expired revisions of " + id + " (" + retentionPolicy + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+			// the most recent first, so that revisions that are removed anyway
+			// are not saved as full profile files while removing their base
+			for (int i = 0; i < expired.length; i++)
+				deleteProfileRevision(id, profileDirectory, expired[i]);
+			compactJournal(id);
+			if (properties.prune(listProfileTimestamps(id)) || properties.needsCompaction())
+				properties.write();
+		} catch (ProvisionException e) {
+			LogHelper.log(e);
+		} catch (IOException e) {
+			// the cached store holds changes that are not on disk
+			stateCache.remove(id);
+			LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, Messages.SimpleProfileRegistry_States_Error_Writing_File, e));
+		} finally {
+			internalUnlockProfile(id);
+		}
+	}
+
+	private void broadcastChangeEvent(String profileId, int reason) {
+		if (eventBus != null)
+			eventBus.publishEvent(new ProfileEvent(profileId, reason));
+	}
+
+	/**
+	 * Restores the profile registry from disk, and returns the loaded profile map.
+	 * Returns <code>null</code> if unable to read the registry.
+	 */
+	private Map<String, Profile> restore() {
+		if (store == null || !store.isDirectory())
+			throw new IllegalStateException(NLS.bind(Messages.reg_dir_not_available, store));
+
+		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		File[] profileDirectories = store.listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				return pathname.getName().endsWith(PROFILE_EXT) && pathname.isDirectory();
+			}
+		});
+		// protect against NPE
+		if (profileDirectories == null) {
+			parser.getProfileMap();
+		}
+		// profiles are locked here since the locks synchronize on this registry,
+		// and only parsed in parallel
+		List<ProfileLock> acquiredLocks = new ArrayList<ProfileLock>();
+		List<RestoreTask> tasks = new ArrayList<RestoreTask>(profileDirectories.length);
+		try {
+			for (int i = 0; i < profileDirectories.length; i++) {
+				String directoryName = profileDirectories[i].getName();
+				String profileId = unescape(directoryName.substring(0, directoryName.lastIndexOf(PROFILE_EXT)));
+				ProfileLock lock = profileLocks.get(profileId);
+				if (lock == null) {
+					lock = new ProfileLock(this, profileDirectories[i]);
+					profileLocks.put(profileId, lock);
+				}
+
+				boolean locked = false;
+				if (lock.processHoldsLock() || (locked = lock.lock())) {
+					if (locked)
+						acquiredLocks.add(lock);
+					// the journals are not thread safe, create the journal before parsing
+					getJournal(profileId);
+					tasks.add(new RestoreTask(profileId, profileDirectories[i]));
+				} else {
+					// could not lock the profile, so add a place holder
+					parser.addProfilePlaceHolder(profileId);
+				}
+			}
+			for (Parser result : parse(tasks))
+				parser.addProfileHandlers(result);
+		} finally {
+			for (ProfileLock lock : acquiredLocks)
+				lock.unlock();
+		}
+		return parser.getProfileMap();
+	}
+
+	/**
+	 * Parses the latest revision of a profile into a parser of its own.
+	 */
+	private class RestoreTask implements Callable<Parser> {
+		private final String profileId;
+		private final File profileDirectory;
+
+		RestoreTask(String profileId, File profileDirectory) {
+			this.profileId = profileId;
+			this.profileDirectory = profileDirectory;
+		}
+
+		public Parser call() {
+			Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+			File profileFile = findLatestProfileFile(profileDirectory);
+			if (profileFile == null)
+				return parser;
+
+			String fileName = profileFile.getName();
+			long latestRevision = getJournal(profileId).getLatestTimestamp();
+			if (latestRevision > Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT)))) {
+				try {
+					parser.parseJournal(profileId, profileDirectory, latestRevision);
+					return parser;
+				} catch (IOException e) {
+					LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, new File(profileDirectory, ProfileJournal.JOURNAL_FILE)), e));
+				}
+			}
+			try {
+				parser.parse(profileFile);
+			} catch (IOException e) {
+				LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+			}
+			return parser;
+		}
+	}
+
+	/**
+	 * Runs the given restore tasks on a bounded number of threads and returns their parsers.
+	 */
+	private List<Parser> parse(List<RestoreTask> tasks) {
+		List<Parser> results = new ArrayList<Parser>(tasks.size());
+		int parallelism = Math.min(getRestoreParallelism(), tasks.size());
+		if (parallelism <= 1) {
+			for (RestoreTask task : tasks)
+				results.add(task.call());
+			return results;
+		}
+
+		if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+			DebugHelper.debug(PROFILE_REGISTRY, "Restoring " + tasks.size() + " profiles on " + parallelism + " threads"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Profile Registry Restore"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<Parser>> futures = executor.invokeAll(tasks);
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, tasks.get(i).profileDirectory), e.getCause()));
+				}
+			}
+		} catch (InterruptedException e) {
+			// finish restoring on this thread
+			Thread.currentThread().interrupt();
+			results.clear();
+			for (RestoreTask task : tasks)
+				results.add(task.call());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	private int getRestoreParallelism() {
+		String parallelism = EngineActivator.getProperty(EngineActivator.PROP_PROFILE_RESTORE_PARALLELISM);
+		if (parallelism != null) {
+			try {
+				return Math.max(1, Integer.parseInt(parallelism));
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * A map of String(Profile id)->Profile that keeps the loaded profiles in the profile
+	 * cache. Profiles that are not cached are loaded, together with their parents, when
+	 * they are accessed. The sub-profiles of each profile are indexed, so that a loaded
+	 * profile knows its sub-profiles before they are loaded.
+	 */
+	private class CachedProfileMap extends AbstractMap<String, Profile> {
+		private final Set<String> profileIds = new LinkedHashSet<String>();
+		// parent id -> ids of its sub-profiles, loaded or not
+		private final Map<String, Set<String>> subProfileIds = new HashMap<String, Set<String>>();
+
+		/**
+		 * Creates a map that holds the given restored profiles.
+		 */
+		CachedProfileMap(Map<String, Profile> restored) {
+			for (Entry<String, Profile> entry : restored.entrySet()) {
+				profileIds.add(entry.getKey());
+				IProfile parent = entry.getValue().getParentProfile();
+				if (parent != null)
+					addSubProfileId(parent.getProfileId(), entry.getKey());
+				profileCache.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		/**
+		 * Creates a map that only indexes the profile directories.
+		 */
+		CachedProfileMap() {
+			if (store == null || !store.isDirectory())
+				throw new IllegalStateException(NLS.bind(Messages.reg_dir_not_available, store));
+
+			File[] profileDirectories = store.listFiles(new FileFilter() {
+				public boolean accept(File pathname) {
+					return pathname.getName().endsWith(PROFILE_EXT) && pathname.isDirectory();
+				}
+			});
+			if (profileDirectories == null)
+				return;
+			for (int i = 0; i < profileDirectories.length; i++) {
+				// a directory without a profile file does not hold a profile
+				File profileFile = findLatestProfileFile(profileDirectories[i]);
+				if (profileFile == null)
+					continue;
+				String directoryName = profileDirectories[i].getName();
+				String profileId = unescape(directoryName.substring(0, directoryName.lastIndexOf(PROFILE_EXT)));
+				profileIds.add(profileId);
+				// the parent of a profile does not change between its revisions
+				String parentId = readParentId(profileFile);
+				if (parentId != null)
+					addSubProfileId(parentId, profileId);
+			}
+		}
+
+		private String readParentId(File profileFile) {
+			try {
+				return new Parser(EngineActivator.getContext(), EngineActivator.ID).parseParentId(profileFile);
+			} catch (IOException e) {
+				LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+				return null;
+			}
+		}
+
+		private void addSubProfileId(String parentId, String subProfileId) {
+			Set<String> ids = subProfileIds.get(parentId);
+			if (ids == null) {
+				ids = new LinkedHashSet<String>();
+				subProfileIds.put(parentId, ids);
+			}
+			ids.add(subProfileId);
+		}
 
-		if (profiles != null) {
-			IProfile profile = getProfile(id);
-			if (profile != null && profile.getTimestamp() == timestamp)
-				throw new ProvisionException(Messages.SimpleProfileRegistry_CannotRemoveCurrentSnapshot);
+		public Profile get(Object key) {
+			if (!profileIds.contains(key))
+				return null;
+			Profile profile = profileCache.get((String) key);
+			if (profile == null)
+				profile = load((String) key);
+			return profile;
 		}
 
-		File profileDirectory = getProfileFolder(id);
-		if (!profileDirectory.isDirectory())
-			return;
+		public boolean containsKey(Object key) {
+			return profileIds.contains(key);
+		}
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
-				return;
+		public Profile put(String key, Profile value) {
+			profileIds.add(key);
+			IProfile parent = value.getParentProfile();
+			if (parent != null)
+				addSubProfileId(parent.getProfileId(), key);
+			// only the cached profile is returned, the previous profile is not loaded
+			Profile previous = profileCache.remove(key);
+			profileCache.put(key, value);
+			return previous;
 		}
-		FileUtils.deleteAll(profileFile);
-		// Ignore the return value here. If there was a problem removing the profile state
-		// properties we don't want to fail the whole operation since the profile state itself 
-		// was removed successfully
-		removeProfileStateProperties(id, timestamp, null);
-	}
 
-	private void broadcastChangeEvent(String profileId, int reason) {
-		if (eventBus != null)
-			eventBus.publishEvent(new ProfileEvent(profileId, reason));
-	}
+		public Profile remove(Object key) {
+			profileIds.remove(key);
+			subProfileIds.remove(key);
+			for (Set<String> ids : subProfileIds.values())
+				ids.remove(key);
+			return profileCache.remove((String) key);
+		}
 
-	/**
-	 * Restores the profile registry from disk, and returns the loaded profile map.
-	 * Returns <code>null</code> if unable to read the registry.
-	 */
-	private Map<String, Profile> restore() {
-		if (store == null || !store.isDirectory())
-			throw new IllegalStateException(NLS.bind(Messages.reg_dir_not_available, store));
+		public int size() {
+			return profileIds.size();
+		}
 
-		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
-		File[] profileDirectories = store.listFiles(new FileFilter() {
-			public boolean accept(File pathname) {
-				return pathname.getName().endsWith(PROFILE_EXT) && pathname.isDirectory();
+		public Set<Entry<String, Profile>> entrySet() {
+			Map<String, Profile> result = new LinkedHashMap<String, Profile>();
+			for (String profileId : new ArrayList<String>(profileIds)) {
+				Profile profile = get(profileId);
+				if (profile != null)
+					result.put(profileId, profile);
 			}
-		});
-		// protect against NPE
-		if (profileDirectories == null) {
-			parser.getProfileMap();
+			return Collections.unmodifiableMap(result).entrySet();
 		}
-		for (int i = 0; i < profileDirectories.length; i++) {
-			String directoryName = profileDirectories[i].getName();
-			String profileId = unescape(directoryName.substring(0, directoryName.lastIndexOf(PROFILE_EXT)));
+
+		private Profile load(String profileId) {
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(PROFILE_REGISTRY, "Loading profile: " + profileId); //$NON-NLS-1$
+			long start = System.nanoTime();
+
+			File profileDirectory = getProfileFolder(profileId);
 			ProfileLock lock = profileLocks.get(profileId);
 			if (lock == null) {
-				lock = new ProfileLock(this, profileDirectories[i]);
+				lock = new ProfileLock(SimpleProfileRegistry.this, profileDirectory);
 				profileLocks.put(profileId, lock);
 			}
-
+			Parser parser;
 			boolean locked = false;
 			if (lock.processHoldsLock() || (locked = lock.lock())) {
 				try {
-					File profileFile = findLatestProfileFile(profileDirectories[i]);
-					if (profileFile != null) {
-						try {
-							parser.parse(profileFile);
-						} catch (IOException e) {
-							LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
-						}
-					}
+					getJournal(profileId);
+					parser = new RestoreTask(profileId, profileDirectory).call();
 				} finally {
 					if (locked)
 						lock.unlock();
 				}
 			} else {
 				// could not lock the profile, so add a place holder
+				parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
 				parser.addProfilePlaceHolder(profileId);
 			}
+
+			Map<String, Profile> profileMap = new HashMap<String, Profile>();
+			String parentId = parser.getParentId(profileId);
+			if (parentId != null) {
+				Profile parent = get(parentId);
+				if (parent != null)
+					profileMap.put(parentId, parent);
+			}
+			Profile profile = parser.getProfile(profileId, profileMap);
+			if (profile == null) {
+				profileIds.remove(profileId);
+				return null;
+			}
+			if (parentId != null)
+				addSubProfileId(parentId, profileId);
+			Set<String> ids = subProfileIds.get(profileId);
+			if (ids != null) {
+				for (String subProfileId : ids)
+					profile.addSubProfile(subProfileId);
+			}
+			profileCache.loaded(System.nanoTime() - start);
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(PROFILE_REGISTRY, "Loaded profile " + profileId + " in " + (System.nanoTime() - start) / 1000000 + "ms: " + profile.getInstallableUnitCount() + " units sharing " + profile.getPropertyMapCount() + " property maps"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+			profileCache.put(profileId, profile);
+			return profile;
 		}
-		return parser.getProfileMap();
 	}
 
 	private File findLatestProfileFile(File profileDirectory) {
@@ -556,6 +1346,15 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	private void saveProfile(Profile profile) {
+		saveProfile(profile, null);
+	}
+
+	/**
+	 * Saves a new revision of the given profile. If a delta to the previous revision is
+	 * given, the revision is appended to the profile journal instead of written as a full
+	 * profile file.
+	 */
+	private void saveProfile(Profile profile, ProfileJournal.Delta delta) {
 		File profileDirectory = getProfileFolder(profile.getProfileId());
 		profileDirectory.mkdir();
 
@@ -563,35 +1362,112 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		long currentTimestamp = System.currentTimeMillis();
 		if (currentTimestamp <= previousTimestamp)
 			currentTimestamp = previousTimestamp + 1;
+
+		if (delta != null) {
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(PROFILE_REGISTRY, "Saving profile revision " + currentTimestamp + " to journal: " + profileDirectory.getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				getJournal(profile.getProfileId()).append(currentTimestamp, previousTimestamp, delta);
+				profile.setTimestamp(currentTimestamp);
+				profile.setChanged(false);
+				scheduleRetention(profile.getProfileId());
+				return;
+			} catch (IOException e) {
+				// fall back to writing a full profile file
+				LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, profile.getProfileId()), e));
+			}
+		}
+
+		profile.setTimestamp(currentTimestamp);
+		profile.setChanged(false);
+		try {
+			writeProfileFile(profile, profileDirectory);
+		} catch (IOException e) {
+			profile.setTimestamp(previousTimestamp);
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, profile.getProfileId()), e));
+			return;
+		}
+		if (getJournalCheckpointInterval() != 0) {
+			try {
+				// the revisions derived from this one are replayed on its local properties
+				getJournal(profile.getProfileId()).checkpoint(currentTimestamp, profile.getLocalProperties());
+			} catch (IOException e) {
+				LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, profile.getProfileId()), e));
+			}
+		}
+		scheduleRetention(profile.getProfileId());
+	}
+
+	/**
+	 * Writes the given profile as a full profile file for its current timestamp.
+	 */
+	private void writeProfileFile(Profile profile, File profileDirectory) throws IOException {
 		boolean shouldGzipFile = shouldGzipFile(profile);
-		File profileFile = new File(profileDirectory, Long.toString(currentTimestamp) + (shouldGzipFile ? PROFILE_GZ_EXT : PROFILE_EXT));
+		File profileFile = new File(profileDirectory, Long.toString(profile.getTimestamp()) + (shouldGzipFile ? PROFILE_GZ_EXT : PROFILE_EXT));
 
 		// Log a stack trace to see who is writing the profile.
 		if (DebugHelper.DEBUG_PROFILE_REGISTRY)
 			DebugHelper.debug(PROFILE_REGISTRY, "Saving profile to: " + profileFile.getAbsolutePath()); //$NON-NLS-1$
 
-		profile.setTimestamp(currentTimestamp);
-		profile.setChanged(false);
+		long directoryModified = profileDirectory.lastModified();
 		OutputStream os = null;
+		boolean saved = false;
 		try {
 			if (shouldGzipFile)
 				os = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(profileFile)));
 			else
 				os = new BufferedOutputStream(new FileOutputStream(profileFile));
-			Writer writer = new Writer(os);
-			writer.writeProfile(profile);
+			new Writer(os).writeProfile(profile);
+			os.close();
+			os = null;
+			saved = true;
+		} finally {
+			if (os != null)
+				try {
+					os.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			if (!saved)
+				profileFile.delete();
+		}
+		if (Boolean.valueOf(EngineActivator.getProperty(EngineActivator.PROP_PROFILE_SNAPSHOT)).booleanValue())
+			saveSnapshot(profile, profileFile);
+		updateTimestampIndex(profile.getProfileId(), profileDirectory, directoryModified, profile.getTimestamp(), true);
+	}
+
+	/**
+	 * Writes the binary snapshot of a profile next to the given, already written, profile file.
+	 * A snapshot that cannot be written is removed so that readers fall back to the profile file.
+	 */
+	private void saveSnapshot(Profile profile, File profileFile) {
+		File snapshotFile = getSnapshotFile(profileFile);
+		OutputStream os = null;
+		boolean saved = false;
+		try {
+			os = new BufferedOutputStream(new FileOutputStream(snapshotFile));
+			new ProfileSnapshotWriter(os).writeProfile(profile, profileFile.length());
+			saved = true;
 		} catch (IOException e) {
-			profile.setTimestamp(previousTimestamp);
-			profileFile.delete();
-			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, profile.getProfileId()), e));
+			LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, profile.getProfileId()), e));
 		} finally {
 			try {
 				if (os != null)
 					os.close();
 			} catch (IOException e) {
-				// ignore
+				saved = false;
 			}
 		}
+		if (!saved)
+			snapshotFile.delete();
+	}
+
+	/**
+	 * Returns the binary snapshot file that corresponds to the given profile file.
+	 */
+	static File getSnapshotFile(File profileFile) {
+		String fileName = profileFile.getName();
+		return new File(profileFile.getParentFile(), fileName.substring(0, fileName.indexOf(PROFILE_EXT)) + ProfileSnapshotConstants.PROFILE_SNAPSHOT_EXT);
 	}
 
 	public void setEventBus(IProvisioningEventBus bus) {
@@ -671,6 +1547,37 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		}
 	}
 
+	/*
+	 * Reads the units of a profile file for the lazily read units of its snapshot that cannot
+	 * be decoded. The snapshot is deleted, so that the profile file is read from then on.
+	 */
+	private class ProfileFileFallback implements LazyInstallableUnit.IFallback {
+		private final File profileFile;
+		private final File snapshotFile;
+		private Map<IVersionedId, IInstallableUnit> units;
+
+		ProfileFileFallback(File profileFile, File snapshotFile) {
+			this.profileFile = profileFile;
+			this.snapshotFile = snapshotFile;
+		}
+
+		public synchronized IInstallableUnit getUnit(String id, Version version) throws IOException {
+			if (units == null) {
+				snapshotFile.delete();
+				Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+				parser.parseProfileFile(profileFile);
+				Map<IVersionedId, IInstallableUnit> parsed = new HashMap<IVersionedId, IInstallableUnit>();
+				for (ProfileParser.ProfileHandler profileHandler : parser.profileHandlers.values()) {
+					IInstallableUnit[] profileUnits = profileHandler.getInstallableUnits();
+					for (int i = 0; profileUnits != null && i < profileUnits.length; i++)
+						parsed.put(new VersionedId(profileUnits[i].getId(), profileUnits[i].getVersion()), profileUnits[i]);
+				}
+				units = parsed;
+			}
+			return units.get(new VersionedId(id, version));
+		}
+	}
+
 	/*
 	 * 	Parser for the contents of a SimpleProfileRegistry,
 	 * 	as written by the Writer class.
@@ -680,28 +1587,160 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 		public Parser(BundleContext context, String bundleId) {
 			super(context, bundleId);
+			setLazyUnits(Boolean.valueOf(EngineActivator.getProperty(EngineActivator.PROP_PROFILE_LAZY_UNITS)).booleanValue());
 		}
 
 		public void addProfilePlaceHolder(String profileId) {
 			profileHandlers.put(profileId, new ProfileHandler(profileId));
 		}
 
+		/**
+		 * Adds the profiles parsed by the given parser to the profiles of this parser.
+		 */
+		public synchronized void addProfileHandlers(Parser parser) {
+			synchronized (parser) {
+				profileHandlers.putAll(parser.profileHandlers);
+			}
+		}
+
 		public void parse(File file) throws IOException {
-			InputStream is;
-			if (file.getName().endsWith(PROFILE_GZ_EXT)) {
-				is = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
-			} else { // backward compatibility. SimpleProfileRegistry doesn't write non-gzipped profiles any more. 
-				is = new BufferedInputStream(new FileInputStream(file));
+			if (parseSnapshot(file))
+				return;
+			parseProfileFile(file);
+		}
+
+		/**
+		 * Parses the given profile file, ignoring its binary snapshot.
+		 */
+		void parseProfileFile(File file) throws IOException {
+			parse(openProfileFile(file));
+		}
+
+		private InputStream openProfileFile(File file) throws IOException {
+			if (file.getName().endsWith(PROFILE_GZ_EXT))
+				return new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
+			// backward compatibility. SimpleProfileRegistry doesn't write non-gzipped profiles any more.
+			return new BufferedInputStream(new FileInputStream(file));
+		}
+
+		/*
+		 * Reads the parent id from the attributes of the root element of a profile file,
+		 * and stops the parse.
+		 */
+		private class ParentIdHandler extends DefaultHandler {
+			String parentId;
+			boolean rootRead;
+
+			public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+				parentId = attributes.getValue(PARENT_ID_ATTRIBUTE);
+				rootRead = true;
+				throw new SAXException(PARENT_ID_ATTRIBUTE);
+			}
+		}
+
+		/**
+		 * Reads the parent id of the profile in the given profile file, or <code>null</code>
+		 * if it is a root profile. The parent id is read from the header of the binary snapshot
+		 * if it is up to date, and from the root element of the profile file otherwise.
+		 */
+		public String parseParentId(File profileFile) throws IOException {
+			File snapshotFile = getSnapshotFile(profileFile);
+			if (snapshotFile.isFile() && snapshotFile.lastModified() >= profileFile.lastModified()) {
+				String fileName = profileFile.getName();
+				DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+				try {
+					if (readSnapshotHeader(input, Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT))), profileFile.length()))
+						return readSnapshotParentId(input);
+				} catch (NumberFormatException e) {
+					// read the profile file
+				} catch (IOException e) {
+					// read the profile file
+				} finally {
+					input.close();
+				}
+			}
+
+			ParentIdHandler handler = new ParentIdHandler();
+			InputStream is = openProfileFile(profileFile);
+			try {
+				parse(is, handler);
+			} catch (IOException e) {
+				// also thrown to stop the parse once the root element was read
+				if (!handler.rootRead)
+					throw e;
+			} finally {
+				is.close();
+			}
+			return handler.parentId;
+		}
+
+		/**
+		 * Reads the binary snapshot of the given profile file instead of the profile file
+		 * itself. Returns <code>false</code> if there is no snapshot or it is not up to date.
+		 */
+		private synchronized boolean parseSnapshot(File profileFile) {
+			File snapshotFile = getSnapshotFile(profileFile);
+			if (!snapshotFile.isFile() || snapshotFile.lastModified() < profileFile.lastModified())
+				return false;
+
+			String fileName = profileFile.getName();
+			long timestamp;
+			try {
+				timestamp = Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT)));
+			} catch (NumberFormatException e) {
+				return false;
+			}
+
+			InputStream is = null;
+			try {
+				is = new BufferedInputStream(new FileInputStream(snapshotFile));
+				ProfileHandler profileHandler = parseSnapshot(is, timestamp, profileFile.length(), new ProfileFileFallback(profileFile, snapshotFile));
+				if (profileHandler == null) {
+					if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+						DebugHelper.debug(PROFILE_REGISTRY, "Ignoring out of date snapshot: " + snapshotFile.getAbsolutePath()); //$NON-NLS-1$
+					return false;
+				}
+				profileHandlers.put(profileHandler.getProfileId(), profileHandler);
+				return true;
+			} catch (IOException e) {
+				if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+					DebugHelper.debug(PROFILE_REGISTRY, "Error reading snapshot " + snapshotFile.getAbsolutePath() + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+				return false;
+			} finally {
+				try {
+					if (is != null)
+						is.close();
+				} catch (IOException e) {
+					// ignore
+				}
 			}
-			parse(is);
+		}
+
+		/**
+		 * Restores the given revision of a profile by replaying the profile journal on top
+		 * of the profile file the revision is derived from.
+		 */
+		public synchronized void parseJournal(String profileId, File profileDirectory, long timestamp) throws IOException {
+			ProfileJournal journal = getJournal(profileId);
+			long checkpoint = journal.getCheckpoint(timestamp);
+			File checkpointFile = getProfileFile(profileDirectory, checkpoint);
+			if (checkpointFile == null)
+				throw new IOException(NLS.bind(Messages.SimpleProfileRegistry_Journal_Missing_Revision, Long.toString(checkpoint), Long.toString(timestamp)));
+			List<ProfileJournal.Delta> deltas = journal.getDeltas(timestamp);
+
+			parse(checkpointFile);
+			ProfileHandler profileHandler = profileHandlers.get(profileId);
+			if (profileHandler == null)
+				throw new IOException(NLS.bind(Messages.error_parsing_profile, checkpointFile));
+			profileHandlers.put(profileId, replayJournal(profileHandler, journal.getCheckpointProperties(checkpoint), timestamp, deltas));
 		}
 
 		public synchronized void parse(InputStream stream) throws IOException {
 			this.status = null;
 			try {
-				// TODO: currently not caching the parser since we make no assumptions
-				//		 or restrictions on concurrent parsing
-				getParser();
+				// the handlers share the reader of this parser, so a parser parses one
+				// stream at a time, while separate parsers parse concurrently with pooled readers
+				acquireXMLReader();
 				ProfileHandler profileHandler = new ProfileHandler();
 				xmlReader.setContentHandler(new ProfileDocHandler(PROFILE_ELEMENT, profileHandler));
 				xmlReader.parse(new InputSource(stream));
@@ -711,6 +1750,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			} catch (ParserConfigurationException e) {
 				throw new IOException(e.getMessage());
 			} finally {
+				releaseXMLReader();
 				stream.close();
 			}
 		}
@@ -727,11 +1767,30 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			return profileMap;
 		}
 
+		/**
+		 * Returns the parent id of the parsed profile with the given id.
+		 */
+		public String getParentId(String profileId) {
+			ProfileHandler profileHandler = profileHandlers.get(profileId);
+			return profileHandler == null ? null : profileHandler.getParentId();
+		}
+
+		/**
+		 * Returns the parsed profile with the given id, taking its parents from the
+		 * given map of already loaded profiles where possible.
+		 */
+		public Profile getProfile(String profileId, Map<String, Profile> profileMap) {
+			addProfile(profileId, profileMap);
+			return profileMap.get(profileId);
+		}
+
 		private void addProfile(String profileId, Map<String, Profile> profileMap) {
 			if (profileMap.containsKey(profileId))
 				return;
 
 			ProfileHandler profileHandler = profileHandlers.get(profileId);
+			if (profileHandler == null)
+				return;
 			Profile parentProfile = null;
 
 			String parentId = profileHandler.getParentId();
@@ -834,14 +1893,31 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	private boolean internalLockProfile(IProfile profile) {
-		ProfileLock lock = profileLocks.get(profile.getProfileId());
+		return internalLockProfile(profile.getProfileId());
+	}
+
+	private boolean internalLockProfile(String id) {
+		ProfileLock lock = profileLocks.get(id);
 		if (lock == null) {
-			lock = new ProfileLock(this, getProfileFolder(profile.getProfileId()));
-			profileLocks.put(profile.getProfileId(), lock);
+			lock = new ProfileLock(this, getProfileFolder(id));
+			profileLocks.put(id, lock);
 		}
 		return lock.lock();
 	}
 
+	/*
+	 * Locks the given profile unless it is in use, in this process or another one. Used by
+	 * optional maintenance, which must neither wait for an engine session nor block shutdown.
+	 */
+	private boolean internalTryLockProfile(String id) {
+		ProfileLock lock = profileLocks.get(id);
+		if (lock == null) {
+			lock = new ProfileLock(this, getProfileFolder(id));
+			profileLocks.put(id, lock);
+		}
+		return lock.tryLock();
+	}
+
 	private boolean checkTimestamps(IProfile profile, IProfile internalProfile) {
 		long[] timestamps = listProfileTimestamps(profile.getProfileId());
 		if (timestamps.length == 0) {
@@ -874,9 +1950,13 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			return false;
 
 		// check profiles to avoid restoring the profile registry
-		if (profiles != null)
+		if (profiles != null) {
+			// a profile that is not cached does not need to be loaded to know it exists
+			if (profiles.containsKey(id))
+				return true;
 			if (getProfile(id) != null)
 				return true;
+		}
 
 		File profileDirectory = getProfileFolder(id);
 		if (!profileDirectory.isDirectory())
@@ -891,6 +1971,9 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 	public synchronized void resetProfiles() {
 		profiles = null;
+		profileCache.clear();
+		stateCache.clear();
+		historyCache.clear();
 	}
 
 	public synchronized void unlockProfile(IProfile profile) {
@@ -900,8 +1983,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	private void internalUnlockProfile(IProfile profile) {
-		ProfileLock lock = profileLocks.get(profile.getProfileId());
+		internalUnlockProfile(profile.getProfileId());
+	}
+
+	private void internalUnlockProfile(String id) {
+		ProfileLock lock = profileLocks.get(id);
 		lock.unlock();
+		// the profile may be evicted now
+		profileCache.trim();
 	}
 
 	public Profile validate(IProfile candidate) {
@@ -935,42 +2024,16 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		try {
 			//ensure there are no more profile preference save jobs running
 			Job.getJobManager().join(ProfilePreferences.PROFILE_SAVE_JOB_FAMILY, null);
+			//compacting state properties is optional, but must not outlive the registry
+			Job.getJobManager().cancel(STATE_COMPACTION_JOB_FAMILY);
+			Job.getJobManager().join(STATE_COMPACTION_JOB_FAMILY, null);
+			Job.getJobManager().cancel(PROFILE_RETENTION_JOB_FAMILY);
+			Job.getJobManager().join(PROFILE_RETENTION_JOB_FAMILY, null);
 		} catch (InterruptedException e) {
 			//ignore
 		}
 	}
 
-	// Class representing a particular instance of a profile's state properties. 
-	// Can be used for caching.
-	class ProfileStateProperties {
-		private String id;
-		private File file;
-		private long timestamp;
-		private Properties properties;
-
-		ProfileStateProperties(String id, File file, Properties properties) {
-			this.id = id;
-			this.file = file;
-			this.properties = properties;
-			this.timestamp = file.lastModified();
-		}
-
-		// return true if the cached timestamp is the same as the one on disk
-		boolean isCurrent() {
-			if (!file.exists())
-				return true;
-			return file.lastModified() == timestamp;
-		}
-
-		String getId() {
-			return id;
-		}
-
-		Properties getProperties() {
-			return this.properties;
-		}
-	}
-
 	/*
 	 * Return the folder on disk associated with the profile with the given identifier.
 	 */
@@ -980,102 +2043,112 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 	/*
 	 * Read and return the state properties for the profile with the given id.
-	 * If one does not exist, then return an empty Properties file.
+	 * If one does not exist, then return an empty store.
 	 * If there were problems reading the file then return throw an exception.
 	 */
-	private Properties readStateProperties(String id) throws ProvisionException {
+	private ProfileStateStore readStateProperties(String id) throws ProvisionException {
 		if (SELF.equals(id))
 			id = self;
 
-		// if the last cached value is the one we are interested in and up-to-date 
-		// then don't bother reading from disk
-		if (lastAccessedProperties != null && id.equals(lastAccessedProperties.getId()) && lastAccessedProperties.isCurrent())
-			return lastAccessedProperties.getProperties();
+		// if the cached value is up-to-date then don't bother reading from disk
+		ProfileStateStore cached = stateCache.get(id);
+		if (cached != null && cached.isCurrent())
+			return cached;
 
+		long start = System.nanoTime();
 		File profileDirectory = getProfileFolder(id);
+		File file = new File(profileDirectory, PROFILE_PROPERTIES_FILE);
+
 		if (!profileDirectory.isDirectory())
 			throw new ProvisionException(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.SimpleProfileRegistry_Bad_profile_location, profileDirectory.getPath())));
 
-		File file = new File(profileDirectory, PROFILE_PROPERTIES_FILE);
-		Properties properties = new Properties();
-		if (!file.exists()) {
-			lastAccessedProperties = new ProfileStateProperties(id, file, properties);
-			return properties;
-		}
-		InputStream input = null;
+		ProfileStateStore properties;
 		try {
-			input = new BufferedInputStream(new FileInputStream(file));
-			properties.load(input);
+			properties = ProfileStateStore.read(file);
 		} catch (IOException e) {
 			throw new ProvisionException(new Status(IStatus.ERROR, EngineActivator.ID, Messages.SimpleProfileRegistry_States_Error_Reading_File, e));
-		} finally {
-			if (input != null)
-				try {
-					input.close();
-				} catch (IOException e) {
-					// Ignore
-				}
 		}
 
 		//cache the value before we return
-		lastAccessedProperties = new ProfileStateProperties(id, file, properties);
+		stateCache.loaded(System.nanoTime() - start);
+		stateCache.put(id, properties);
+		if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+			DebugHelper.debug(PROFILE_REGISTRY, "Read state properties of " + id + ": " + stateCache); //$NON-NLS-1$ //$NON-NLS-2$
 		return properties;
 	}
 
 	/*
-	 * Write the given state properties to disk for the specified profile.
+	 * Schedules the compaction of the state properties of the given profile.
 	 */
-	private IStatus writeStateProperties(String id, Properties properties) {
-		if (SELF.equals(id))
-			id = self;
+	private void scheduleStateCompaction(String id) {
+		stateCompactionJob.add(id);
+		stateCompactionJob.schedule(STATE_COMPACTION_DELAY);
+	}
 
-		File profileDirectory = getProfileFolder(id);
-		File file = new File(profileDirectory, PROFILE_PROPERTIES_FILE);
-		OutputStream output = null;
-		Properties prunedProperties = properties;
+	/*
+	 * Removes the state properties of profile timestamps that no longer exist, and
+	 * rewrites the state properties file if it holds replaced entries. The journal of
+	 * the profile is compacted as well.
+	 */
+	synchronized void compactStateProperties(String id) {
+		if (!getProfileFolder(id).isDirectory())
+			return;
+		// in use, compacted when next written
+		if (!internalTryLockProfile(id))
+			return;
 		try {
-			output = new BufferedOutputStream(new FileOutputStream(file));
-			prunedProperties = pruneStateProperties(id, properties);
-			prunedProperties.store(output, null);
-			output.flush();
+			compactJournal(id);
+			ProfileStateStore properties = readStateProperties(id);
+			if (properties.prune(listProfileTimestamps(id)) || properties.needsCompaction())
+				properties.write();
+		} catch (ProvisionException e) {
+			LogHelper.log(e);
 		} catch (IOException e) {
-			return new Status(IStatus.ERROR, EngineActivator.ID, Messages.SimpleProfileRegistry_States_Error_Writing_File, e);
+			// the cached store holds changes that are not on disk
+			stateCache.remove(id);
+			LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, Messages.SimpleProfileRegistry_States_Error_Writing_File, e));
 		} finally {
-			try {
-				if (output != null)
-					output.close();
-			} catch (IOException e) {
-				// ignore
-			}
+			internalUnlockProfile(id);
 		}
-		// cache the value
-		lastAccessedProperties = new ProfileStateProperties(id, file, prunedProperties);
-		return Status.OK_STATUS;
 	}
 
-	// Only write state properties for state timestamps that still exist
-	// TODO: Do we want to expose this method as API?
-	// TODO: Do we want to run this method on every write or just after specific elapsed times since the last Prune?
-	private Properties pruneStateProperties(String id, Properties properties) {
-		Properties result = new Properties();
-		long[] timestamps = listProfileTimestamps(id);
-		HashSet<String> timestampsSet = new HashSet<String>(timestamps.length);
-		for (int i = 0; i < timestamps.length; i++) {
-			timestampsSet.add(String.valueOf(timestamps[i]));
-		}
-
-		Enumeration<Object> keys = properties.keys();
-		while (keys.hasMoreElements()) {
-			String key = (String) keys.nextElement();
-			int index = key.indexOf('.');
-			if (index > -1) {
-				String timestamp = key.substring(0, index);
-				if (timestampsSet.contains(timestamp)) {
-					result.put(key, properties.get(key));
-				}
-			}
+	/*
+	 * Runs a maintenance task on each of the profiles added since the job last ran.
+	 */
+	private abstract static class ProfileMaintenanceJob extends Job {
+		private final Object family;
+		private final Set<String> profileIds = new LinkedHashSet<String>();
+
+		ProfileMaintenanceJob(String name, Object family) {
+			super(name);
+			this.family = family;
+			setSystem(true);
+		}
+
+		public boolean belongsTo(Object jobFamily) {
+			return jobFamily == family;
+		}
+
+		synchronized void add(String id) {
+			profileIds.add(id);
+		}
+
+		private synchronized String next() {
+			Iterator<String> iterator = profileIds.iterator();
+			if (!iterator.hasNext())
+				return null;
+			String id = iterator.next();
+			iterator.remove();
+			return id;
+		}
+
+		protected abstract void maintain(String id);
+
+		protected IStatus run(IProgressMonitor monitor) {
+			for (String id = next(); id != null && !monitor.isCanceled(); id = next())
+				maintain(id);
+			return Status.OK_STATUS;
 		}
-		return result;
 	}
 
 	/*
@@ -1110,17 +2183,17 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			throw new IllegalStateException(Messages.SimpleProfileRegistry_Profile_in_use);
 
 		try {
-			Properties properties = readStateProperties(profile.getProfileId());
-			for (Map.Entry<String, String> entry : propertiesToAdd.entrySet()) {
-				// property key format is timestamp.key
-				properties.put(timestamp + "." + entry.getKey(), entry.getValue()); //$NON-NLS-1$
-			}
-			writeStateProperties(profile.getProfileId(), properties);
+			readStateProperties(profile.getProfileId()).put(timestamp, propertiesToAdd);
 		} catch (ProvisionException e) {
 			return e.getStatus();
+		} catch (IOException e) {
+			// the cached store holds changes that are not on disk
+			stateCache.remove(profile.getProfileId());
+			return new Status(IStatus.ERROR, EngineActivator.ID, Messages.SimpleProfileRegistry_States_Error_Writing_File, e);
 		} finally {
 			internalUnlockProfile(profile);
 		}
+		scheduleStateCompaction(profile.getProfileId());
 		return Status.OK_STATUS;
 	}
 
@@ -1150,20 +2223,12 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 	private Map<String, String> internalGetProfileStateProperties(IProfile profile, long timestamp, boolean lock) {
 		Map<String, String> result = new HashMap<String, String>();
-		String timestampString = String.valueOf(timestamp);
-		int keyOffset = timestampString.length() + 1;
-		lock = lock || lastAccessedProperties == null;
+		lock = lock || !stateCache.containsKey(profile.getProfileId());
 		if (lock)
 			if (!internalLockProfile(profile))
 				throw new IllegalStateException(Messages.SimpleProfileRegistry_Profile_in_use);
 		try {
-			Properties properties = readStateProperties(profile.getProfileId());
-			Iterator<Object> keys = properties.keySet().iterator();
-			while (keys.hasNext()) {
-				String key = (String) keys.next();
-				if (key.indexOf(timestampString) == 0)
-					result.put(key.substring(keyOffset), properties.getProperty(key));
-			}
+			result = readStateProperties(profile.getProfileId()).getProperties(timestamp);
 		} catch (ProvisionException e) {
 			LogHelper.log(e);
 		} finally {
@@ -1186,21 +2251,12 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 	private Map<String, String> internalGetProfileStateProperties(IProfile profile, String userKey, boolean lock) {
 		Map<String, String> result = new HashMap<String, String>();
-		lock = lock || lastAccessedProperties == null;
+		lock = lock || !stateCache.containsKey(profile.getProfileId());
 		if (lock)
 			if (!internalLockProfile(profile))
 				throw new IllegalStateException(Messages.SimpleProfileRegistry_Profile_in_use);
 		try {
-			Properties properties = readStateProperties(profile.getProfileId());
-			Iterator<Object> keys = properties.keySet().iterator();
-			while (keys.hasNext()) {
-				// property key format is timestamp.key
-				String key = (String) keys.next();
-				int index = key.indexOf('.');
-				if (index != -1 && index + 1 != key.length() && key.substring(index + 1).equals(userKey)) {
-					result.put(key.substring(0, index), properties.getProperty(key));
-				}
-			}
+			result = readStateProperties(profile.getProfileId()).getValues(userKey);
 		} catch (ProvisionException e) {
 			LogHelper.log(e);
 		} finally {
@@ -1225,26 +2281,18 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			throw new IllegalStateException(Messages.SimpleProfileRegistry_Profile_in_use);
 
 		try {
-			Properties properties = readStateProperties(id);
-			String timestampString = String.valueOf(timestamp);
-			if (keys == null) {
-				// remove all keys
-				for (Iterator<Object> already = properties.keySet().iterator(); already.hasNext();) {
-					String key = (String) already.next();
-					// property key is timestamp.key
-					if (key.indexOf(timestampString) == 0)
-						already.remove();
-				}
-			} else {
-				for (String key : keys) {
-					// property key format is timestamp.key
-					if (key != null)
-						properties.remove(timestampString + "." + key); //$NON-NLS-1$
-				}
-			}
-			writeStateProperties(id, properties);
+			ProfileStateStore properties = readStateProperties(id);
+			// removing properties rewrites the file, so drop those of removed timestamps as well
+			boolean changed = properties.remove(timestamp, keys);
+			changed |= properties.prune(listProfileTimestamps(id));
+			if (changed || properties.needsCompaction())
+				properties.write();
 		} catch (ProvisionException e) {
 			return e.getStatus();
+		} catch (IOException e) {
+			// the cached store holds changes that are not on disk
+			stateCache.remove(id);
+			return new Status(IStatus.ERROR, EngineActivator.ID, Messages.SimpleProfileRegistry_States_Error_Writing_File, e);
 		} finally {
 			internalUnlockProfile(internalProfile);
 		}
@@ -17,14 +17,14 @@ import java.net.*;
 import java.util.ArrayList;
 import java.util.Iterator;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.URIUtil;
 import org.eclipse.equinox.internal.p2.core.helpers.ServiceHelper;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
-import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
-import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.metadata.expression.*;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.osgi.service.datalocation.Location;
 import org.eclipse.osgi.util.NLS;
@@ -41,29 +41,51 @@ public class SurrogateProfileHandler implements ISurrogateProfileHandler {
 	private static final String STRICT = "STRICT"; //$NON-NLS-1$
 	private static final String PROP_INCLUSION_RULES = "org.eclipse.equinox.p2.internal.inclusion.rules"; //$NON-NLS-1$
 
+	private static final IQuery<IInstallableUnit> ROOT_IU_QUERY = QueryUtil.createMatchQuery( //
+			"profileProperties[$0] == 'true' || (touchpointType != null && touchpointType.id == $1)",//$NON-NLS-1$
+			IProfile.PROP_PROFILE_ROOT_IU, NATIVE_TOUCHPOINT_TYPE);
+	private static final IExpression SHARED_IU_REQUIREMENT = ExpressionUtil.parse("id == $0 && version == $1"); //$NON-NLS-1$
+
 	private final IProvisioningAgent agent;
 
 	private SimpleProfileRegistry profileRegistry;
 
 	private SoftReference<IProfile> cachedProfile;
 
-	private static void addSharedProfileBaseIUs(final IProfile sharedProfile, final Profile userProfile) {
-		IQuery<IInstallableUnit> rootIUQuery = QueryUtil.createMatchQuery( //
-				"profileProperties[$0] == 'true' || (touchpointType != null && touchpointType.id == $1)",//$NON-NLS-1$
-				IProfile.PROP_PROFILE_ROOT_IU, NATIVE_TOUCHPOINT_TYPE);
-		IQueryResult<IInstallableUnit> rootIUs = sharedProfile.query(rootIUQuery, null);
-		for (Iterator<IInstallableUnit> iterator = rootIUs.iterator(); iterator.hasNext();) {
+	// the units surrogate profiles start with, for the cached shared profile
+	private SoftReference<Profile> cachedBase;
+
+	private static void addSharedProfileBaseIUs(final Profile base, final Profile userProfile) {
+		IQueryResult<IInstallableUnit> baseIUs = base.query(QueryUtil.createIUAnyQuery(), null);
+		for (Iterator<IInstallableUnit> iterator = baseIUs.iterator(); iterator.hasNext();) {
 			IInstallableUnit iu = iterator.next();
 			userProfile.addInstallableUnit(iu);
-			userProfile.addInstallableUnitProperties(iu, sharedProfile.getInstallableUnitProperties(iu));
-			userProfile.setInstallableUnitProperty(iu, IProfile.PROP_PROFILE_LOCKED_IU, IU_LOCKED);
-			userProfile.setInstallableUnitProperty(iu, PROP_BASE, Boolean.TRUE.toString());
+			userProfile.addInstallableUnitProperties(iu, base.getInstallableUnitProperties(iu));
+		}
+	}
+
+	/*
+	 * Creates a profile holding the root units of the shared profile and the unit requiring all
+	 * the units of the shared profile, with the unit properties a surrogate profile gives them.
+	 */
+	private static Profile createSharedProfileBase(IProvisioningAgent agent, final IProfile sharedProfile) {
+		Profile base = new Profile(agent, sharedProfile.getProfileId(), null, null);
+		base.setTimestamp(sharedProfile.getTimestamp());
+
+		IQueryResult<IInstallableUnit> rootIUs = sharedProfile.query(ROOT_IU_QUERY, null);
+		for (Iterator<IInstallableUnit> iterator = rootIUs.iterator(); iterator.hasNext();) {
+			IInstallableUnit iu = iterator.next();
+			base.addInstallableUnit(iu);
+			base.addInstallableUnitProperties(iu, sharedProfile.getInstallableUnitProperties(iu));
+			base.setInstallableUnitProperty(iu, IProfile.PROP_PROFILE_LOCKED_IU, IU_LOCKED);
+			base.setInstallableUnitProperty(iu, PROP_BASE, Boolean.TRUE.toString());
 		}
 
 		IInstallableUnit sharedProfileIU = createSharedProfileIU(sharedProfile);
-		userProfile.addInstallableUnit(sharedProfileIU);
-		userProfile.setInstallableUnitProperty(sharedProfileIU, PROP_INCLUSION_RULES, STRICT);
-		userProfile.setInstallableUnitProperty(sharedProfileIU, PROP_BASE, Boolean.TRUE.toString());
+		base.addInstallableUnit(sharedProfileIU);
+		base.setInstallableUnitProperty(sharedProfileIU, PROP_INCLUSION_RULES, STRICT);
+		base.setInstallableUnitProperty(sharedProfileIU, PROP_BASE, Boolean.TRUE.toString());
+		return base;
 	}
 
 	private static IInstallableUnit createSharedProfileIU(final IProfile sharedProfile) {
@@ -80,7 +102,7 @@ public class SurrogateProfileHandler implements ISurrogateProfileHandler {
 		IQueryResult<IInstallableUnit> allIUs = sharedProfile.query(QueryUtil.createIUAnyQuery(), null);
 		for (Iterator<IInstallableUnit> iterator = allIUs.iterator(); iterator.hasNext();) {
 			IInstallableUnit iu = iterator.next();
-			IMatchExpression<IInstallableUnit> iuMatcher = ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(ExpressionUtil.parse("id == $0 && version == $1"), iu.getId(), iu.getVersion()); //$NON-NLS-1$
+			IMatchExpression<IInstallableUnit> iuMatcher = ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(SHARED_IU_REQUIREMENT, iu.getId(), iu.getVersion());
 			iuRequirements.add(MetadataFactory.createRequirement(iuMatcher, null, 0, 1, true));
 		}
 		iuDescription.addRequirements(iuRequirements);
@@ -162,6 +184,30 @@ public class SurrogateProfileHandler implements ISurrogateProfileHandler {
 		return profile;
 	}
 
+	/*
+	 * Returns the units surrogate profiles of the given shared profile start with. They are
+	 * computed once per revision of the shared profile and stored with the shared registry,
+	 * so that the users of a shared install do not each compute them again.
+	 */
+	private synchronized Profile getSharedProfileBase(IProfile sharedProfile) {
+		String id = sharedProfile.getProfileId();
+		long timestamp = sharedProfile.getTimestamp();
+		if (cachedBase != null) {
+			Profile base = cachedBase.get();
+			if (base != null && base.getProfileId().equals(id) && base.getTimestamp() == timestamp)
+				return base;
+		}
+
+		SimpleProfileRegistry registry = getProfileRegistry();
+		Profile base = registry.readSurrogateBase(id, timestamp);
+		if (base == null) {
+			base = createSharedProfileBase(agent, sharedProfile);
+			registry.writeSurrogateBase(base);
+		}
+		cachedBase = new SoftReference<Profile>(base);
+		return base;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.p2.engine.ISurrogateProfileHandler#createProfile(java.lang.String)
 	 */
@@ -174,7 +220,7 @@ public class SurrogateProfileHandler implements ISurrogateProfileHandler {
 		userProfile.setProperty(PROP_SURROGATE, Boolean.TRUE.toString());
 		userProfile.setSurrogateProfileHandler(this);
 		updateProperties(sharedProfile, userProfile);
-		addSharedProfileBaseIUs(sharedProfile, userProfile);
+		addSharedProfileBaseIUs(getSharedProfileBase(sharedProfile), userProfile);
 		return userProfile;
 	}
 
@@ -193,10 +239,9 @@ public class SurrogateProfileHandler implements ISurrogateProfileHandler {
 		if (sharedProfile == null)
 			return profile.query(query, monitor);
 
-		// TODO: Should consider using a sequenced iterator here instead of collecting
-		Collector<IInstallableUnit> result = new Collector<IInstallableUnit>();
-		result.addAll(sharedProfile.query(query, monitor));
-		result.addAll(profile.query(query, monitor));
-		return result;
+		// the user profile is only queried once the shared results have been consumed, as it
+		// is at this call, so a snapshot is queried and the monitor of the caller is not kept
+		IQueryable<IInstallableUnit> userProfile = profile instanceof Profile ? ((Profile) profile).snapshot() : profile;
+		return new SequencedQueryResult<IInstallableUnit>(sharedProfile.query(query, monitor), userProfile, query, new NullProgressMonitor());
 	}
 }
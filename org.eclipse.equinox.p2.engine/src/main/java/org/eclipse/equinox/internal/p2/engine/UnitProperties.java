@@ -0,0 +1,244 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * An unmodifiable, compact map of the profile properties of an installable unit.
+ * <p>
+ * The keys and values are held in parallel arrays, in the order they were added. Key
+ * tables and strings are shared between maps, and maps with the same properties in the
+ * same order are shared as flyweights, so the many units of a profile that have the same
+ * properties, such as its root units, hold a single map. Changes return another map.
+ * Like the ordered properties these maps replace, they may hold <code>null</code> keys
+ * and values.
+ */
+public final class UnitProperties extends AbstractMap<String, String> {
+
+	public static final UnitProperties EMPTY = new UnitProperties(Collections.<String> emptyList(), new String[0]);
+
+	// keyed by the contents of the flyweights, which keep their contents alive
+	private static final Map<Contents, WeakReference<UnitProperties>> FLYWEIGHTS = new WeakHashMap<Contents, WeakReference<UnitProperties>>();
+	private static final WeakInterner<List<String>> KEY_TABLES = new WeakInterner<List<String>>();
+
+	private final List<String> keys;
+	private final String[] values;
+	private final Contents contents;
+	private int hash;
+
+	private UnitProperties(List<String> keys, String[] values) {
+		this.keys = keys;
+		this.values = values;
+		this.contents = new Contents(keys, values);
+	}
+
+	/**
+	 * Returns the shared map holding the given properties.
+	 */
+	public static UnitProperties create(Map<String, String> properties) {
+		if (properties instanceof UnitProperties)
+			return (UnitProperties) properties;
+		if (properties.isEmpty())
+			return EMPTY;
+		String[] newKeys = new String[properties.size()];
+		String[] newValues = new String[newKeys.length];
+		int i = 0;
+		for (Entry<String, String> entry : properties.entrySet()) {
+			newKeys[i] = entry.getKey();
+			newValues[i++] = entry.getValue();
+		}
+		return intern(newKeys, newValues);
+	}
+
+	private static UnitProperties intern(String[] newKeys, String[] newValues) {
+		if (newKeys.length == 0)
+			return EMPTY;
+		for (int i = 0; i < newKeys.length; i++) {
+			newKeys[i] = ProfileParser.intern(newKeys[i]);
+			newValues[i] = ProfileParser.intern(newValues[i]);
+		}
+		UnitProperties properties = new UnitProperties(KEY_TABLES.intern(Arrays.asList(newKeys)), newValues);
+		synchronized (FLYWEIGHTS) {
+			WeakReference<UnitProperties> reference = FLYWEIGHTS.get(properties.contents);
+			UnitProperties flyweight = reference == null ? null : reference.get();
+			if (flyweight != null)
+				return flyweight;
+			FLYWEIGHTS.put(properties.contents, new WeakReference<UnitProperties>(properties));
+		}
+		return properties;
+	}
+
+	/**
+	 * Returns the shared map holding these properties and the given one.
+	 */
+	public UnitProperties with(String key, String value) {
+		int index = keys.indexOf(key);
+		if (index >= 0) {
+			if (equal(values[index], value))
+				return this;
+			String[] newValues = values.clone();
+			newValues[index] = value;
+			return intern(keys.toArray(new String[keys.size()]), newValues);
+		}
+		String[] newKeys = keys.toArray(new String[keys.size() + 1]);
+		String[] newValues = new String[newKeys.length];
+		System.arraycopy(values, 0, newValues, 0, values.length);
+		newKeys[values.length] = key;
+		newValues[values.length] = value;
+		return intern(newKeys, newValues);
+	}
+
+	/**
+	 * Returns the shared map holding these properties but the given one.
+	 */
+	public UnitProperties without(String key) {
+		int index = keys.indexOf(key);
+		if (index < 0)
+			return this;
+		String[] newKeys = new String[values.length - 1];
+		String[] newValues = new String[newKeys.length];
+		for (int i = 0, j = 0; i < values.length; i++) {
+			if (i == index)
+				continue;
+			newKeys[j] = keys.get(i);
+			newValues[j++] = values[i];
+		}
+		return intern(newKeys, newValues);
+	}
+
+	public String get(Object key) {
+		int index = keys.indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	public boolean containsKey(Object key) {
+		return keys.indexOf(key) >= 0;
+	}
+
+	public int size() {
+		return values.length;
+	}
+
+	public Set<Entry<String, String>> entrySet() {
+		return new AbstractSet<Entry<String, String>>() {
+			public Iterator<Entry<String, String>> iterator() {
+				return new Iterator<Entry<String, String>>() {
+					private int index;
+
+					public boolean hasNext() {
+						return index < values.length;
+					}
+
+					public Entry<String, String> next() {
+						if (index >= values.length)
+							throw new NoSuchElementException();
+						return new UnitProperty(keys.get(index), values[index++]);
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			public int size() {
+				return values.length;
+			}
+		};
+	}
+
+	public int hashCode() {
+		int result = hash;
+		if (result == 0) {
+			for (int i = 0; i < values.length; i++)
+				result += hash(keys.get(i)) ^ hash(values[i]);
+			hash = result;
+		}
+		return result;
+	}
+
+	public boolean equals(Object object) {
+		return object == this || super.equals(object);
+	}
+
+	static int hash(String string) {
+		return string == null ? 0 : string.hashCode();
+	}
+
+	static boolean equal(Object first, Object second) {
+		return first == null ? second == null : first.equals(second);
+	}
+
+	/**
+	 * The keys and values of a map, equal to those with the same key table and the same
+	 * values in the same order. Unlike maps, contents in another order are not equal.
+	 */
+	private static final class Contents {
+		private final List<String> keys;
+		private final String[] values;
+
+		Contents(List<String> keys, String[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		public int hashCode() {
+			return 31 * System.identityHashCode(keys) + Arrays.hashCode(values);
+		}
+
+		public boolean equals(Object object) {
+			if (!(object instanceof Contents))
+				return false;
+			Contents other = (Contents) object;
+			// key tables are shared, so equal key tables are the same
+			return keys == other.keys && Arrays.equals(values, other.values);
+		}
+	}
+
+	private static final class UnitProperty implements Entry<String, String> {
+		private final String key;
+		private final String value;
+
+		UnitProperty(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public String setValue(String newValue) {
+			throw new UnsupportedOperationException();
+		}
+
+		public int hashCode() {
+			return hash(key) ^ hash(value);
+		}
+
+		public boolean equals(Object object) {
+			if (!(object instanceof Entry<?, ?>))
+				return false;
+			Entry<?, ?> other = (Entry<?, ?>) object;
+			return equal(key, other.getKey()) && equal(value, other.getValue());
+		}
+
+		public String toString() {
+			return key + '=' + value;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of canonical instances of equal values. Values are only weakly referenced,
+ * so a value leaves the pool once no one else uses it.
+ */
+public class WeakInterner<T> {
+
+	private final Map<T, WeakReference<T>> pool = new WeakHashMap<T, WeakReference<T>>();
+
+	/**
+	 * Returns the canonical instance of the given value, which is the value itself
+	 * if no equal value is in use.
+	 */
+	public synchronized T intern(T value) {
+		if (value == null)
+			return null;
+		WeakReference<T> reference = pool.get(value);
+		if (reference != null) {
+			T canonical = reference.get();
+			if (canonical != null)
+				return canonical;
+		}
+		pool.put(value, new WeakReference<T>(value));
+		return value;
+	}
+
+	public synchronized int size() {
+		return pool.size();
+	}
+}
@@ -36,6 +36,7 @@ public class CertificateChecker {
 
 	private ArrayList<File> artifacts;
 	private final IProvisioningAgent agent;
+	private ArtifactPipeline pipeline;
 
 	public CertificateChecker() {
 		this(null);
@@ -70,7 +71,7 @@ public class CertificateChecker {
 			return status;
 		for (File artifact : artifacts) {
 			try {
-				content = verifierFactory.getSignedContent(artifact);
+				content = pipeline != null ? pipeline.getSignedContent(artifact, verifierFactory) : verifierFactory.getSignedContent(artifact);
 				if (!content.isSigned()) {
 					unsigned.add(artifact);
 					continue;
@@ -231,4 +232,11 @@ public class CertificateChecker {
 				add((File) toAdd[i]);
 		}
 	}
+
+	/**
+	 * Sets the pipeline that verified the signatures of the artifacts in the background, if any.
+	 */
+	public void setArtifactPipeline(ArtifactPipeline pipeline) {
+		this.pipeline = pipeline;
+	}
 }
@@ -14,6 +14,7 @@ import java.io.File;
 import java.util.*;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.internal.p2.engine.ArtifactPipeline;
 import org.eclipse.equinox.internal.p2.engine.InstallableUnitOperand;
 import org.eclipse.equinox.internal.p2.engine.InstallableUnitPhase;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -30,6 +31,8 @@ import org.eclipse.equinox.p2.metadata.ITouchpointType;
 public class CheckTrust extends InstallableUnitPhase {
 
 	public static final String PARM_ARTIFACT_FILES = "artifactFiles"; //$NON-NLS-1$
+	// the number of artifact files already handed to the artifact pipeline for verification
+	private int verifiedFiles = 0;
 
 	public CheckTrust(int weight) {
 		super(PhaseSetFactory.PHASE_CHECK_TRUST, weight);
@@ -43,9 +46,17 @@ public class CheckTrust extends InstallableUnitPhase {
 		@SuppressWarnings("unchecked")
 		Collection<File> artifactRequests = (Collection<File>) parameters.get(PARM_ARTIFACT_FILES);
 		IProvisioningAgent agent = (IProvisioningAgent) parameters.get(PARM_AGENT);
+		ArtifactPipeline pipeline = getArtifactPipeline();
+		if (pipeline != null) {
+			// the artifacts of all units must be downloaded before any of them is trusted
+			IStatus downloadStatus = pipeline.awaitDownloads(monitor);
+			if (!downloadStatus.isOK())
+				return downloadStatus;
+		}
 
 		// Instantiate a check trust manager
 		CertificateChecker certificateChecker = new CertificateChecker(agent);
+		certificateChecker.setArtifactPipeline(pipeline);
 		certificateChecker.add(artifactRequests.toArray());
 		IStatus status = certificateChecker.start();
 
@@ -74,11 +85,30 @@ public class CheckTrust extends InstallableUnitPhase {
 		IInstallableUnit iu = operand.second();
 		parameters.put(PARM_IU, iu);
 
+		ArtifactPipeline pipeline = getArtifactPipeline();
+		if (pipeline != null) {
+			IStatus downloadStatus = pipeline.awaitDownloads(iu, monitor);
+			if (!downloadStatus.isOK())
+				return downloadStatus;
+		}
 		return super.initializeOperand(profile, operand, parameters, monitor);
 	}
 
+	protected IStatus completeOperand(IProfile profile, InstallableUnitOperand operand, Map<String, Object> parameters, IProgressMonitor monitor) {
+		ArtifactPipeline pipeline = getArtifactPipeline();
+		if (pipeline == null)
+			return super.completeOperand(profile, operand, parameters, monitor);
+		// verify the files the actions of this operand added while the remaining artifacts are downloaded
+		@SuppressWarnings("unchecked")
+		List<File> artifactFiles = (List<File>) parameters.get(PARM_ARTIFACT_FILES);
+		for (; verifiedFiles < artifactFiles.size(); verifiedFiles++)
+			pipeline.verify(artifactFiles.get(verifiedFiles));
+		return super.completeOperand(profile, operand, parameters, monitor);
+	}
+
 	protected IStatus initializePhase(IProgressMonitor monitor, IProfile profile, Map<String, Object> parameters) {
 		parameters.put(PARM_ARTIFACT_FILES, new ArrayList<File>());
+		verifiedFiles = 0;
 		return super.initializePhase(monitor, profile, parameters);
 	}
 
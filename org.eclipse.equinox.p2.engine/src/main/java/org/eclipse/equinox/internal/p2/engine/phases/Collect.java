@@ -31,6 +31,8 @@ public class Collect extends InstallableUnitPhase {
 	public static final String PARM_ARTIFACT_REQUESTS = "artifactRequests"; //$NON-NLS-1$
 	public static final String NO_ARTIFACT_REPOSITORIES_AVAILABLE = "noArtifactRepositoriesAvailable"; //$NON-NLS-1$
 	private IProvisioningAgent agent = null;
+	// the number of requests already registered with the artifact pipeline
+	private int pipelinedRequests = 0;
 
 	public Collect(int weight) {
 		super(PhaseSetFactory.PHASE_COLLECT, weight);
@@ -101,6 +103,12 @@ public class Collect extends InstallableUnitPhase {
 		IProvisioningEventBus bus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
 		if (bus != null)
 			bus.publishEvent(new CollectEvent(CollectEvent.TYPE_OVERALL_START, null, context, totalArtifactRequests.toArray(new IArtifactRequest[totalArtifactRequests.size()])));
+		ArtifactPipeline pipeline = getArtifactPipeline();
+		if (pipeline != null) {
+			// the agent is kept so that pausing the phase set still reaches the download
+			pipeline.startDownloads(dm, context, bus, totalArtifactRequests.toArray(new IArtifactRequest[totalArtifactRequests.size()]));
+			return Status.OK_STATUS;
+		}
 		IStatus downloadStatus = dm.start(monitor);
 		try {
 			return downloadStatus;
@@ -115,6 +123,7 @@ public class Collect extends InstallableUnitPhase {
 
 	protected IStatus initializePhase(IProgressMonitor monitor, IProfile profile, Map<String, Object> parameters) {
 		parameters.put(PARM_ARTIFACT_REQUESTS, new ArrayList<IArtifactRequest[]>());
+		pipelinedRequests = 0;
 		return null;
 	}
 
@@ -142,4 +151,16 @@ public class Collect extends InstallableUnitPhase {
 		return status;
 	}
 
+	protected IStatus completeOperand(IProfile profile, InstallableUnitOperand operand, Map<String, Object> parameters, IProgressMonitor monitor) {
+		ArtifactPipeline pipeline = getArtifactPipeline();
+		if (pipeline == null)
+			return Status.OK_STATUS;
+		// register the requests the actions of this operand added, so check trust can wait for them only
+		@SuppressWarnings("unchecked")
+		List<IArtifactRequest[]> artifactRequests = (List<IArtifactRequest[]>) parameters.get(PARM_ARTIFACT_REQUESTS);
+		for (; pipelinedRequests < artifactRequests.size(); pipelinedRequests++)
+			pipeline.add(operand.second(), artifactRequests.get(pipelinedRequests));
+		return Status.OK_STATUS;
+	}
+
 }
@@ -27,7 +27,7 @@ import org.eclipse.osgi.util.NLS;
 
 public class Configure extends InstallableUnitPhase {
 
-	final static class BeforeConfigureEventAction extends ProvisioningAction {
+	final static class BeforeConfigureEventAction extends ProvisioningAction implements ISequentialAction {
 
 		public IStatus execute(Map<String, Object> parameters) {
 			IProfile profile = (IProfile) parameters.get(PARM_PROFILE);
@@ -48,7 +48,7 @@ public class Configure extends InstallableUnitPhase {
 		}
 	}
 
-	final static class AfterConfigureEventAction extends ProvisioningAction {
+	final static class AfterConfigureEventAction extends ProvisioningAction implements ISequentialAction {
 
 		public IStatus execute(Map<String, Object> parameters) {
 			Profile profile = (Profile) parameters.get(PARM_PROFILE);
@@ -73,6 +73,10 @@ public class Configure extends InstallableUnitPhase {
 		super(PhaseSetFactory.PHASE_CONFIGURE, weight);
 	}
 
+	protected boolean supportsParallelOperands() {
+		return true;
+	}
+
 	protected boolean isApplicable(InstallableUnitOperand op) {
 		return (op.second() != null);
 	}
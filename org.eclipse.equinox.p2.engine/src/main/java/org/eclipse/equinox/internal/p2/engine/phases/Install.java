@@ -26,7 +26,7 @@ import org.eclipse.osgi.util.NLS;
 
 public class Install extends InstallableUnitPhase {
 
-	final static class BeforeInstallEventAction extends ProvisioningAction {
+	final static class BeforeInstallEventAction extends ProvisioningAction implements ISequentialAction {
 
 		public IStatus execute(Map<String, Object> parameters) {
 			IProfile profile = (IProfile) parameters.get(PARM_PROFILE);
@@ -48,7 +48,7 @@ public class Install extends InstallableUnitPhase {
 		}
 	}
 
-	final static class AfterInstallEventAction extends ProvisioningAction {
+	final static class AfterInstallEventAction extends ProvisioningAction implements ISequentialAction {
 
 		public IStatus execute(Map<String, Object> parameters) {
 			Profile profile = (Profile) parameters.get(PARM_PROFILE);
@@ -74,6 +74,10 @@ public class Install extends InstallableUnitPhase {
 		super(PhaseSetFactory.PHASE_INSTALL, weight);
 	}
 
+	protected boolean supportsParallelOperands() {
+		return true;
+	}
+
 	protected boolean isApplicable(InstallableUnitOperand op) {
 		return (op.second() != null && !op.second().equals(op.first()));
 	}
@@ -26,7 +26,7 @@ import org.eclipse.equinox.p2.query.QueryUtil;
 
 public class Unconfigure extends InstallableUnitPhase {
 
-	final static class BeforeUnConfigureEventAction extends ProvisioningAction {
+	final static class BeforeUnConfigureEventAction extends ProvisioningAction implements ISequentialAction {
 
 		public IStatus execute(Map<String, Object> parameters) {
 			IProfile profile = (IProfile) parameters.get(PARM_PROFILE);
@@ -47,7 +47,7 @@ public class Unconfigure extends InstallableUnitPhase {
 		}
 	}
 
-	final static class AfterUnConfigureEventAction extends ProvisioningAction {
+	final static class AfterUnConfigureEventAction extends ProvisioningAction implements ISequentialAction {
 
 		public IStatus execute(Map<String, Object> parameters) {
 			Profile profile = (Profile) parameters.get(PARM_PROFILE);
@@ -25,7 +25,7 @@ import org.eclipse.equinox.p2.query.QueryUtil;
 
 public class Uninstall extends InstallableUnitPhase {
 
-	final static class BeforeUninstallEventAction extends ProvisioningAction {
+	final static class BeforeUninstallEventAction extends ProvisioningAction implements ISequentialAction {
 		public IStatus execute(Map<String, Object> parameters) {
 			IProfile profile = (IProfile) parameters.get(PARM_PROFILE);
 			String phaseId = (String) parameters.get(PARM_PHASE_ID);
@@ -46,7 +46,7 @@ public class Uninstall extends InstallableUnitPhase {
 		}
 	}
 
-	final static class AfterUninstallEventAction extends ProvisioningAction {
+	final static class AfterUninstallEventAction extends ProvisioningAction implements ISequentialAction {
 		public IStatus execute(Map<String, Object> parameters) {
 			Profile profile = (Profile) parameters.get(PARM_PROFILE);
 			String phaseId = (String) parameters.get(PARM_PHASE_ID);
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ *  Copyright (c) 2026 WSO2 Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     WSO2 Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.engine;
+
+import java.util.List;
+import java.util.Map;
+import org.eclipse.equinox.p2.metadata.IVersionedId;
+
+/**
+ * The differences between two revisions of a profile, as returned by
+ * {@link IProfileRegistry#getProfileDelta(String, long, long)}. Installable units
+ * are identified by their id and version. A <code>null</code> value in a property
+ * map indicates that the property was removed.
+ * 
+ * @noimplement This interface is not intended to be implemented by clients.
+ * @noextend This interface is not intended to be extended by clients.
+ * @since 2.3
+ */
+public interface IProfileDelta {
+
+	/**
+	 * Returns the id of the profile.
+	 * @return the profile id
+	 */
+	public String getProfileId();
+
+	/**
+	 * Returns the timestamp of the revision the differences are computed from.
+	 * @return the timestamp of the older revision
+	 */
+	public long getFromTimestamp();
+
+	/**
+	 * Returns the timestamp of the revision the differences lead to.
+	 * @return the timestamp of the newer revision
+	 */
+	public long getToTimestamp();
+
+	/**
+	 * Returns the installable units that are only in the newer revision, sorted by id and version.
+	 * @return the added installable units
+	 */
+	public List<IVersionedId> getAddedUnits();
+
+	/**
+	 * Returns the installable units that are only in the older revision, sorted by id and version.
+	 * @return the removed installable units
+	 */
+	public List<IVersionedId> getRemovedUnits();
+
+	/**
+	 * Returns the installable units that are in both revisions and whose installable
+	 * unit properties differ, sorted by id and version.
+	 * @return the changed installable units
+	 */
+	public List<IVersionedId> getChangedUnits();
+
+	/**
+	 * Returns the changes of the installable unit properties of the installable units in
+	 * the newer revision, by installable unit. For an added unit these are all its properties.
+	 * @return the changed installable unit properties
+	 */
+	public Map<IVersionedId, Map<String, String>> getUnitPropertyChanges();
+
+	/**
+	 * Returns the changes of the profile properties.
+	 * @return the changed profile properties
+	 */
+	public Map<String, String> getPropertyChanges();
+
+	/**
+	 * Returns whether the two revisions hold the same installable units and properties.
+	 * @return <code>true</code> if there are no differences, and <code>false</code> otherwise
+	 */
+	public boolean isEmpty();
+}
@@ -208,4 +208,16 @@ public interface IProfileRegistry {
 	 * @since 2.1
 	 */
 	public IStatus removeProfileStateProperties(String id, long timestamp, Collection<String> keys);
+
+	/**
+	 * Returns the differences between two revisions of the profile with the given id. The
+	 * revisions are compared without being restored as profiles where possible.
+	 * 
+	 * @param id the profile identifier
+	 * @param fromTimestamp the timestamp of the older revision
+	 * @param toTimestamp the timestamp of the newer revision
+	 * @return the differences, or <code>null</code> if either revision does not exist
+	 * @since 2.3
+	 */
+	public IProfileDelta getProfileDelta(String id, long fromTimestamp, long toTimestamp);
 }
@@ -170,4 +170,23 @@ public abstract class Touchpoint {
 	public IStatus rollback(IProfile profile) {
 		return Status.OK_STATUS;
 	}
+
+	/**
+	 * Returns whether the actions of this touchpoint can be executed for several operands
+	 * of a phase at the same time. If so, phases that support it may execute the actions of
+	 * independent operands on different threads.
+	 * <p>
+	 * The operands are still initialized and completed one at a time, in the order of
+	 * the phase, but an operand may be initialized before the actions of the operands preceding
+	 * it were executed. The actions of a single operand are always executed in order, on one thread.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the actions of this touchpoint can be executed concurrently
+	 * for different operands, and <code>false</code> otherwise. This default implementation
+	 * returns <code>false</code>.
+	 * @since 2.3
+	 */
+	public boolean isConcurrencySafe() {
+		return false;
+	}
 }